@@ -0,0 +1,123 @@
+package com.lynchdt.questions;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Every way of flattening, over every NestedShapes shape at a few sizes. Run with
+ *
+ * ./gradlew jmh
+ * ./gradlew jmh -PjmhArgs="-p shape=deep -p size=100000 stack|array"
+ *
+ * which runs with the GC profiler. Throughput is flattens per second, and the integers
+ * counter is the same in integers per second. gc.alloc.rate.norm is bytes allocated per
+ * flatten - divide by size for bytes per integer. Boxed Integers and ArrayList growth
+ * show up there for recursion and stack, where array should be close to 4 bytes plus the
+ * doublings.
+ *
+ * getFlattenedByRecursion() uses a stack frame per integer, not just per level, so the
+ * forks get a big thread stack to let it finish at the larger sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xss1g", "-Xmx2g"})
+public class FlattenerBenchmark {
+
+	@Param({NestedShapes.FLAT, NestedShapes.DEEP, NestedShapes.WIDE, NestedShapes.BALANCED, NestedShapes.RANDOM})
+	public String shape;
+
+	@Param({"1000", "100000", "1000000"})
+	public int size;
+
+	private Flattener flattener;
+	private byte[] text;
+
+	/**
+	 * Integers flattened, reported as a rate alongside the flattens per second.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counted {
+		public long integers;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			integers = 0;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void generate() {
+		List<Object> lists = NestedShapes.generate(shape, size);
+		flattener = new Flattener(lists);
+		text = NestedShapes.toText(lists);
+	}
+
+	@Benchmark
+	public List<Integer> recursion(Counted counted) {
+		counted.integers += size;
+		return flattener.getFlattenedByRecursion();
+	}
+
+	@Benchmark
+	public List<Integer> stack(Counted counted) {
+		counted.integers += size;
+		return flattener.getFlattenedUsingStack();
+	}
+
+	@Benchmark
+	public int[] array(Counted counted) {
+		counted.integers += size;
+		return flattener.getFlattenedAsArray();
+	}
+
+	@Benchmark
+	public void lazily(Counted counted, Blackhole blackhole) {
+		counted.integers += size;
+		flattener.getFlattenedLazily().forEachRemaining((int value) -> blackhole.consume(value));
+	}
+
+	@Benchmark
+	public int stream(Counted counted) {
+		counted.integers += size;
+		return flattener.getFlattenedAsStream().sum();
+	}
+
+	@Benchmark
+	public int[] parallel(Counted counted) {
+		counted.integers += size;
+		return flattener.getFlattenedInParallel();
+	}
+
+	/**
+	 * From the text rather than the lists, so this includes the parsing the others have
+	 * had done for them.
+	 */
+	@Benchmark
+	public long text(Counted counted, Blackhole blackhole) throws IOException {
+		counted.integers += size;
+		TextFlattener textFlattener = new TextFlattener(Channels.newChannel(new ByteArrayInputStream(text)));
+		return textFlattener.flattenTo((int value) -> blackhole.consume(value));
+	}
+}
@@ -0,0 +1,147 @@
+package com.lynchdt.questions;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Nested lists of the shapes the benchmarks flatten, each holding exactly size integers,
+ * 0 to size - 1 in order, so every strategy has the same work to do whatever the shape.
+ *
+ * flat		[0, 1, 2, ..]
+ * deep		[0, [1, [2, [..]]]] - a chain size deep
+ * wide		[[0, .., 9], [10, .., 19], ..] - lots of short lists, two deep
+ * balanced	four lists to a list, four integers at the bottom - log4(size) deep
+ * random	lists opened and closed at random, never more than 64 deep
+ *
+ * The lists are ArrayLists, as they would be coming out of most parsers.
+ */
+public class NestedShapes {
+
+	public static final String FLAT = "flat";
+	public static final String DEEP = "deep";
+	public static final String WIDE = "wide";
+	public static final String BALANCED = "balanced";
+	public static final String RANDOM = "random";
+
+	private static final int WIDE_LIST_SIZE = 10;
+	private static final int FAN_OUT = 4;
+	private static final int RANDOM_MAX_DEPTH = 64;
+
+	public static List<Object> generate(String shape, int size) {
+		switch(shape) {
+			case FLAT: return flat(size);
+			case DEEP: return deep(size);
+			case WIDE: return wide(size);
+			case BALANCED: return balanced(0, size);
+			case RANDOM: return random(size, new Random(size));
+			default: throw new IllegalArgumentException("No such shape " + shape);
+		}
+	}
+
+	private static List<Object> flat(int size) {
+		List<Object> list = new ArrayList<>(size);
+		for(int i = 0; i < size; i++) {
+			list.add(i);
+		}
+		return list;
+	}
+
+	/**
+	 * Built from the bottom up, since going down would need the recursion we are measuring.
+	 */
+	private static List<Object> deep(int size) {
+		List<Object> chain = new ArrayList<>();
+		for(int i = size - 1; i >= 0; i--) {
+			List<Object> level = new ArrayList<>(2);
+			level.add(i);
+			if(!chain.isEmpty()) {
+				level.add(chain);
+			}
+			chain = level;
+		}
+		return chain;
+	}
+
+	private static List<Object> wide(int size) {
+		List<Object> root = new ArrayList<>(size / WIDE_LIST_SIZE + 1);
+		for(int from = 0; from < size; from += WIDE_LIST_SIZE) {
+			List<Object> list = new ArrayList<>(WIDE_LIST_SIZE);
+			for(int i = from; i < Math.min(size, from + WIDE_LIST_SIZE); i++) {
+				list.add(i);
+			}
+			root.add(list);
+		}
+		return root;
+	}
+
+	/**
+	 * Integers from to from + size - 1. Only log4(size) deep, so recursion is fine here.
+	 */
+	private static List<Object> balanced(int from, int size) {
+		List<Object> list = new ArrayList<>(FAN_OUT);
+		if(size <= FAN_OUT) {
+			for(int i = from; i < from + size; i++) {
+				list.add(i);
+			}
+			return list;
+		}
+		int part = (size + FAN_OUT - 1) / FAN_OUT;
+		for(int start = from; start < from + size; start += part) {
+			list.add(balanced(start, Math.min(part, from + size - start)));
+		}
+		return list;
+	}
+
+	private static List<Object> random(int size, Random random) {
+		List<List<Object>> open = new ArrayList<>();
+		open.add(new ArrayList<>());
+		for(int i = 0; i < size; i++) {
+			int roll = random.nextInt(100);
+			if(roll < 15 && open.size() < RANDOM_MAX_DEPTH) {
+				List<Object> list = new ArrayList<>();
+				open.get(open.size() - 1).add(list);
+				open.add(list);
+			} else if(roll < 30 && open.size() > 1) {
+				open.remove(open.size() - 1);
+			}
+			open.get(open.size() - 1).add(i);
+		}
+		return open.get(0);
+	}
+
+	/**
+	 * The lists as text, e.g. [[0,1,[2]],3], for TextFlattener. Walked with a stack of
+	 * iterators so a deep chain doesn't need a deep Java stack.
+	 */
+	public static byte[] toText(List<Object> lists) {
+		StringBuilder text = new StringBuilder("[");
+		List<Iterator<?>> stack = new ArrayList<>();
+		stack.add(lists.iterator());
+		boolean first = true;
+		while(!stack.isEmpty()) {
+			Iterator<?> top = stack.get(stack.size() - 1);
+			if(!top.hasNext()) {
+				text.append(']');
+				stack.remove(stack.size() - 1);
+				first = false;
+				continue;
+			}
+			if(!first) {
+				text.append(',');
+			}
+			Object next = top.next();
+			if(next instanceof List<?>) {
+				text.append('[');
+				stack.add(((List<?>) next).iterator());
+				first = true;
+			} else {
+				text.append(next);
+				first = false;
+			}
+		}
+		return text.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+}
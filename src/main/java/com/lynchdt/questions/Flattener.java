@@ -2,8 +2,20 @@ package com.lynchdt.questions;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
 
 import com.google.common.base.Preconditions;
 
@@ -13,16 +25,22 @@ import com.google.common.base.Preconditions;
  * was integers, so lets not get generic prematurely. Any classes other than List<Object> or
  * Integer are rejected with an exception.
  * 
- * I didn't have time to implement anything that could possibly detect and break/report cycles 
- * i.e. for the case that some level of nesting contains a reference to a previous level. See the Unit 
- * tests for expectations of what will happen. A Hash<Set> containing references to visited Lists
- * could be built up and examined. Flattening can stop at the first detection of a cycle, recovering 
- * might be a bit trickier.
+ * A list that contains itself, at whatever level of nesting, used to overflow the stack or 
+ * fill the heap. Every variant now stops with a CyclicNestingException instead. Only the lists 
+ * on the way down from the top are remembered, not every list visited, so that costs memory in
+ * proportion to the depth rather than the size of the input - and nothing at all until the 
+ * nesting is CYCLE_CHECK_DEPTH deep. A cycle nests forever, so it always gets that deep, and
+ * from there on it has to come back round to a list it has already been through.
+ * 
+ * limitDepth() and limitSize() put a ceiling on how deep the nesting and how many integers
+ * a caller is prepared to deal with, past which flattening stops with a LimitExceededException.
  */
 public class Flattener {
 
 	private List<Object> integerList;
 	private List<Integer> flattened;
+	private int maxDepth = Integer.MAX_VALUE;
+	private int maxSize = Integer.MAX_VALUE;
 	
 	public Flattener(List<Object> integerList) {
 		Preconditions.checkNotNull(integerList, "Please a possibly nested array of integers to flatten");
@@ -34,27 +52,59 @@ public class Flattener {
 		return this.integerList;
 	}
 	
-	private void flatten(Iterator<?> iterator) {
+	/**
+	 * The top level list is 1 deep, a list in it 2 and so on. Deeper than this and flattening
+	 * stops with a LimitExceededException.
+	 */
+	public void limitDepth(int maxDepth) {
+		if(maxDepth <= 0) {
+			throw new IllegalArgumentException("Maximum depth must be at least 1");
+		}
+		this.maxDepth = maxDepth;
+	}
+	
+	/**
+	 * More integers than this and flattening stops with a LimitExceededException, before
+	 * any more memory goes on them.
+	 */
+	public void limitSize(int maxSize) {
+		if(maxSize < 0) {
+			throw new IllegalArgumentException("Maximum size can't be negative");
+		}
+		this.maxSize = maxSize;
+	}
+	
+	private void flatten(Iterator<?> iterator, PathGuard guard) {
 		if(!iterator.hasNext()) { return; }
 		Object next = iterator.next();
 		if(next instanceof Integer) {
-			flattened.add((Integer)next);
+			add((Integer)next);
 		} else if(next instanceof List<?>) {
-			flatten(((List<?>) next).iterator());
+			guard.enter((List<?>) next);
+			flatten(((List<?>) next).iterator(), guard);
+			guard.leave();
 		} else {
 			throw new UnsupportedOperationException("Don't know what to do with class " +  next.getClass());
 		}
-		flatten(iterator);
+		flatten(iterator, guard);
+	}
+	
+	private void add(Integer value) {
+		if(flattened.size() >= maxSize) {
+			throw LimitExceededException.tooMany(maxSize);
+		}
+		flattened.add(value);
 	}
 	
 	public List<Integer> getFlattenedByRecursion() {
 		flattened = new ArrayList<>();
-		flatten(integerList.iterator());
+		flatten(integerList.iterator(), new PathGuard(integerList, maxDepth));
 		return flattened;
 	}
 	
 	public List<Integer> getFlattenedUsingStack() {
 		Stack<Iterator<?>> stack = new Stack<>();
+		PathGuard guard = new PathGuard(integerList, maxDepth);
 		flattened = new ArrayList<>();
 		/** Seed the stack */
 		stack.push(integerList.iterator());
@@ -63,11 +113,13 @@ public class Flattener {
 			Iterator<?> currentLevel = stack.peek();
 			if(!currentLevel.hasNext()) { 
 				stack.pop(); 	/** All elements evaluated in this branch */
+				guard.leave();
 			} else  {
 				Object next = currentLevel.next();
 				if(next instanceof Integer) {
-					flattened.add((Integer)next);
+					add((Integer)next);
 				} else if(next instanceof List<?>) {
+					guard.enter((List<?>) next);
 					stack.push(((List<?>) next).iterator());
 				} else {
 					throw new UnsupportedOperationException("Don't know what to do with class " +  next.getClass());
@@ -76,4 +128,515 @@ public class Flattener {
 		}
 		return flattened;
 	}
+	
+	/**
+	 * The same walk as getFlattenedUsingStack(), without the boxing or the locking. Integers
+	 * go straight into an IntBuilder rather than an ArrayList<Integer>, and the stack is a
+	 * CursorStack rather than java.util.Stack - a Vector, so every push, peek and pop takes
+	 * a lock. Lists that are RandomAccess (ArrayList, ImmutableList) are walked by index, so
+	 * no Iterator is made for them either, and the integers of whichever list is on top are
+	 * run through in a tight loop that only stops at a nested list.
+	 * 
+	 * Flattening ten million integers goes from a few hundred Mb of Integers and a few
+	 * seconds to 40Mb (plus the doubling) and well under a second.
+	 */
+	public int[] getFlattenedAsArray() {
+		IntBuilder values = new IntBuilder(integerList.size(), maxSize);
+		CursorStack stack = new CursorStack(new PathGuard(null, maxDepth));
+		stack.push(integerList);
+		
+		while(!stack.isEmpty()) {
+			int top = stack.depth - 1;
+			Object next = CursorStack.END;
+			Iterator<?> iterator = stack.iterators[top];
+			if(iterator == null) {
+				List<?> list = stack.lists[top];
+				int position = stack.positions[top];
+				int length = list.size();
+				while(position < length) {
+					Object element = list.get(position++);
+					if(!(element instanceof Integer)) {
+						next = element;
+						break;
+					}
+					values.add((Integer)element);
+				}
+				stack.positions[top] = position;
+			} else {
+				while(iterator.hasNext()) {
+					Object element = iterator.next();
+					if(!(element instanceof Integer)) {
+						next = element;
+						break;
+					}
+					values.add((Integer)element);
+				}
+			}
+			
+			if(next == CursorStack.END) {
+				stack.pop();	/** All elements evaluated in this branch */
+			} else if(next instanceof List<?>) {
+				stack.push((List<?>) next);
+			} else {
+				throw new UnsupportedOperationException("Don't know what to do with " +  
+						(next == null ? "null" : "class " + next.getClass()));
+			}
+		}
+		return values.toArray();
+	}
+	
+	/**
+	 * Flattens as it goes rather than all up front, so the first integer is there straight
+	 * away and nothing is kept but where we are in each level - memory goes with the depth
+	 * of the nesting, not the number of integers. Stop early and the rest is never walked.
+	 * 
+	 * Since it's lazy, an unsupported class is only thrown for when the walk gets to it.
+	 * Don't change the lists while iterating, as with any List iterator.
+	 */
+	public PrimitiveIterator.OfInt getFlattenedLazily() {
+		return new FlatteningIterator(integerList, new PathGuard(null, maxDepth), maxSize);
+	}
+	
+	/**
+	 * getFlattenedLazily() as a sequential IntStream, so limit(), findFirst(), anyMatch() 
+	 * and friends stop the walk as soon as they have their answer, and sum() and the like
+	 * never hold more than one integer.
+	 */
+	public IntStream getFlattenedAsStream() {
+		return StreamSupport.intStream(Spliterators.spliteratorUnknownSize(getFlattenedLazily(), 
+				Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+	
+	/**
+	 * Flattens on the common ForkJoinPool, for when the lists are big enough to be worth it.
+	 * See getFlattenedInParallel(ForkJoinPool).
+	 */
+	public int[] getFlattenedInParallel() {
+		return getFlattenedInParallel(ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Two passes over the same tree of Segments - ranges of a list. A Segment with more than
+	 * PARALLEL_THRESHOLD elements is split in two and the halves done in parallel. A smaller 
+	 * one is walked sequentially, except that any nested list in it with more than 
+	 * PARALLEL_THRESHOLD elements becomes a Segment of its own, also done in parallel.
+	 * 
+	 * The first pass counts the integers under every Segment. That's enough to allocate the
+	 * result and to know where each Segment's integers start - after those of everything 
+	 * before it - so the second pass has each Segment write its integers straight into place.
+	 * Order is kept, and there's no merging or copying of partial results.
+	 * 
+	 * Since the count comes first, limitSize() is only checked once everything is counted,
+	 * but it's still checked before anything is allocated for the integers.
+	 */
+	public int[] getFlattenedInParallel(ForkJoinPool pool) {
+		Segment root = new Segment(integerList, 0, integerList.size(), null, 1);
+		pool.invoke(new CountTask(root));
+		if(root.count > maxSize) {
+			throw LimitExceededException.tooMany(maxSize);
+		}
+		if(root.count > Integer.MAX_VALUE - 8) {
+			throw new UnsupportedOperationException("Too many integers for an int[] - " + root.count);
+		}
+		int[] flattened = new int[(int) root.count];
+		pool.invoke(new WriteTask(root, flattened, 0));
+		return flattened;
+	}
+	
+	/**
+	 * Below this many elements a list isn't worth splitting up.
+	 */
+	protected static final int PARALLEL_THRESHOLD = 8192;
+	
+	/**
+	 * Elements [from, to) of a list, and how many integers are under them. Split into a left
+	 * and right half, or else a leaf with any big nested lists as Segments of their own. 
+	 * The parent is the Segment it was split from or nested in, and the depth is that of
+	 * the list.
+	 */
+	private static final class Segment {
+		private final List<?> list;
+		private final int from;
+		private final int to;
+		private final Segment parent;
+		private final int depth;
+		private long count;
+		private Segment left;
+		private Segment right;
+		private List<Segment> nested;
+		
+		Segment(List<?> list, int from, int to, Segment parent, int depth) {
+			this.list = list;
+			this.from = from;
+			this.to = to;
+			this.parent = parent;
+			this.depth = depth;
+		}
+		
+		/**
+		 * Index access is only cheap for RandomAccess lists, so the rest are never split.
+		 */
+		boolean isSplit() {
+			return to - from > PARALLEL_THRESHOLD && list instanceof RandomAccess;
+		}
+		
+		static boolean isBig(Object element) {
+			return element instanceof List<?> && ((List<?>) element).size() > PARALLEL_THRESHOLD;
+		}
+	}
+	
+	/**
+	 * A big list nested in a Segment, unless it is too deep or is one of the lists the
+	 * Segment is already inside. There are only so many big lists, so going up through the
+	 * parents for each one is cheap.
+	 */
+	private Segment nest(Segment segment, List<?> list) {
+		if(segment.depth + 1 > maxDepth) {
+			throw LimitExceededException.tooDeep(maxDepth);
+		}
+		for(Segment outer = segment; outer!=null; outer = outer.parent) {
+			if(outer.list == list) {
+				throw new CyclicNestingException(segment.depth + 1);
+			}
+		}
+		return new Segment(list, 0, list.size(), segment, segment.depth + 1);
+	}
+	
+	private final class CountTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Segment segment;
+		
+		CountTask(Segment segment) {
+			this.segment = segment;
+		}
+		
+		@Override
+		protected void compute() {
+			if(segment.isSplit()) {
+				int middle = (segment.from + segment.to) >>> 1;
+				segment.left = new Segment(segment.list, segment.from, middle, segment, segment.depth);
+				segment.right = new Segment(segment.list, middle, segment.to, segment, segment.depth);
+				invokeAll(new CountTask(segment.left), new CountTask(segment.right));
+				segment.count = segment.left.count + segment.right.count;
+				return;
+			}
+			List<CountTask> tasks = new ArrayList<>();
+			long count = 0;
+			for(Object element : segment.list.subList(segment.from, segment.to)) {
+				if(Segment.isBig(element)) {
+					List<?> list = (List<?>) element;
+					if(segment.nested==null) {
+						segment.nested = new ArrayList<>();
+					}
+					Segment nested = nest(segment, list);
+					segment.nested.add(nested);
+					tasks.add(new CountTask(nested));
+				} else {
+					count += walk(element, segment.depth, null, 0);
+				}
+			}
+			invokeAll(tasks);
+			for(CountTask task : tasks) {
+				count += task.segment.count;
+			}
+			segment.count = count;
+		}
+	}
+	
+	private final class WriteTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Segment segment;
+		private final int[] flattened;
+		private final int offset;
+		
+		WriteTask(Segment segment, int[] flattened, int offset) {
+			this.segment = segment;
+			this.flattened = flattened;
+			this.offset = offset;
+		}
+		
+		@Override
+		protected void compute() {
+			if(segment.left!=null) {
+				invokeAll(new WriteTask(segment.left, flattened, offset), 
+						new WriteTask(segment.right, flattened, offset + (int) segment.left.count));
+				return;
+			}
+			List<WriteTask> tasks = new ArrayList<>();
+			int position = offset;
+			int nestedIndex = 0;
+			for(Object element : segment.list.subList(segment.from, segment.to)) {
+				if(Segment.isBig(element)) {
+					Segment nested = segment.nested.get(nestedIndex++);
+					tasks.add(new WriteTask(nested, flattened, position));
+					position += (int) nested.count;
+				} else {
+					position = walk(element, segment.depth, flattened, position);
+				}
+			}
+			invokeAll(tasks);
+		}
+	}
+	
+	/**
+	 * Sequentially writes the integers of an element (an Integer, or a list walked as 
+	 * getFlattenedAsArray() does) from the position on, returning the position after them.
+	 * With no array to write to, just counts them. The depth is that of the list the element
+	 * is in.
+	 */
+	private int walk(Object element, int depth, int[] flattened, int position) {
+		if(element instanceof Integer) {
+			if(flattened!=null) {
+				flattened[position] = (Integer)element;
+			}
+			return position + 1;
+		}
+		if(!(element instanceof List<?>)) {
+			throw new UnsupportedOperationException("Don't know what to do with " +  
+					(element == null ? "null" : "class " + element.getClass()));
+		}
+		CursorStack stack = new CursorStack(new PathGuard(depth, maxDepth));
+		stack.push((List<?>) element);
+		while(!stack.isEmpty()) {
+			Object next = stack.next();
+			if(next == CursorStack.END) {
+				stack.pop();
+			} else if(next instanceof Integer) {
+				if(flattened!=null) {
+					flattened[position] = (Integer)next;
+				}
+				position++;
+			} else if(next instanceof List<?>) {
+				stack.push((List<?>) next);
+			} else {
+				throw new UnsupportedOperationException("Don't know what to do with " +  
+						(next == null ? "null" : "class " + next.getClass()));
+			}
+		}
+		return position;
+	}
+	
+	private static final int INITIAL_CAPACITY = 16;
+	
+	/**
+	 * The walk of getFlattenedUsingStack(), one integer per call.
+	 */
+	private static final class FlatteningIterator implements PrimitiveIterator.OfInt {
+		private final CursorStack stack;
+		private final int maxSize;
+		private int nextValue;
+		private int count = 0;
+		private boolean ready = false;
+		
+		FlatteningIterator(List<?> root, PathGuard guard, int maxSize) {
+			this.stack = new CursorStack(guard);
+			this.maxSize = maxSize;
+			stack.push(root);
+		}
+		
+		@Override
+		public boolean hasNext() {
+			while(!ready && !stack.isEmpty()) {
+				Object next = stack.next();
+				if(next == CursorStack.END) {
+					stack.pop();
+				} else if(next instanceof Integer) {
+					if(count++ >= maxSize) {
+						throw LimitExceededException.tooMany(maxSize);
+					}
+					nextValue = (Integer)next;
+					ready = true;
+				} else if(next instanceof List<?>) {
+					stack.push((List<?>) next);
+				} else {
+					throw new UnsupportedOperationException("Don't know what to do with " +  
+							(next == null ? "null" : "class " + next.getClass()));
+				}
+			}
+			return ready;
+		}
+		
+		@Override
+		public int nextInt() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			ready = false;
+			return nextValue;
+		}
+	}
+	
+	/**
+	 * An int[] that doubles when full, like ArrayList does, but with nothing boxed. It never
+	 * grows past the limit, so the limit costs nothing until the array is full.
+	 */
+	private static final class IntBuilder {
+		private int[] values;
+		private int size = 0;
+		private final int limit;
+		
+		IntBuilder(int expected, int limit) {
+			values = new int[Math.min(limit, Math.max(INITIAL_CAPACITY, expected))];
+			this.limit = limit;
+		}
+		
+		void add(int value) {
+			if(size == values.length) {
+				if(size >= limit) {
+					throw LimitExceededException.tooMany(limit);
+				}
+				values = Arrays.copyOf(values, (int) Math.min(limit, size * 2L));
+			}
+			values[size++] = value;
+		}
+		
+		int[] toArray() {
+			return size == values.length ? values : Arrays.copyOf(values, size);
+		}
+	}
+	
+	/**
+	 * Where we are in each list on the way down, in plain arrays. A RandomAccess list 
+	 * gets an index, anything else an Iterator.
+	 */
+	private static final class CursorStack {
+		private static final Object END = new Object();
+		
+		private final PathGuard guard;
+		private List<?>[] lists = new List<?>[INITIAL_CAPACITY];
+		private Iterator<?>[] iterators = new Iterator<?>[INITIAL_CAPACITY];
+		private int[] positions = new int[INITIAL_CAPACITY];
+		private int depth = 0;
+		
+		CursorStack(PathGuard guard) {
+			this.guard = guard;
+		}
+		
+		boolean isEmpty() {
+			return depth == 0;
+		}
+		
+		void push(List<?> list) {
+			guard.enter(list);
+			if(depth == lists.length) {
+				lists = Arrays.copyOf(lists, depth * 2);
+				iterators = Arrays.copyOf(iterators, depth * 2);
+				positions = Arrays.copyOf(positions, depth * 2);
+			}
+			lists[depth] = list;
+			iterators[depth] = list instanceof RandomAccess ? null : list.iterator();
+			positions[depth] = 0;
+			depth++;
+		}
+		
+		/**
+		 * The next element of the list on top, or END when there are no more.
+		 */
+		Object next() {
+			int top = depth - 1;
+			Iterator<?> iterator = iterators[top];
+			if(iterator == null) {
+				List<?> list = lists[top];
+				return positions[top] < list.size() ? list.get(positions[top]++) : END;
+			}
+			return iterator.hasNext() ? iterator.next() : END;
+		}
+		
+		void pop() {
+			guard.leave();
+			depth--;
+			/** Let go, so a finished branch can be collected */
+			lists[depth] = null;
+			iterators[depth] = null;
+		}
+	}
+	
+	/**
+	 * Nesting this deep is where looking out for cycles starts. Real lists are rarely 
+	 * nested this far, so they never pay for it.
+	 */
+	protected static final int CYCLE_CHECK_DEPTH = 32;
+	
+	/**
+	 * Keeps track of how deep the walk is, and of the lists it is inside once it is deeper 
+	 * than CYCLE_CHECK_DEPTH - by identity, since two different lists can be equal, and a
+	 * list that contains itself can't even work out its own hashCode(). A list that is
+	 * already on the way down is a cycle. The same list twice side by side is fine, it's
+	 * only a cycle if one is inside the other.
+	 * 
+	 * Any cycle goes on nesting forever, so it always gets deep enough to be noticed, at
+	 * worst after once more round. 
+	 */
+	private static final class PathGuard {
+		private final int maxDepth;
+		private int depth;
+		private Map<List<?>, Boolean> deepLists;
+		private List<List<?>> deepPath;
+		
+		/**
+		 * For a walk that starts inside a list this deep - 0 for the very top.
+		 */
+		PathGuard(int depth, int maxDepth) {
+			this.depth = depth;
+			this.maxDepth = maxDepth;
+		}
+		
+		/**
+		 * For a walk of the top list, when that isn't pushed through enter().
+		 */
+		PathGuard(List<?> root, int maxDepth) {
+			this(root == null ? 0 : 1, maxDepth);
+		}
+		
+		void enter(List<?> list) {
+			if(++depth > maxDepth) {
+				throw LimitExceededException.tooDeep(maxDepth);
+			}
+			if(depth < CYCLE_CHECK_DEPTH) { return; }
+			if(deepLists == null) {
+				deepLists = new IdentityHashMap<>();
+				deepPath = new ArrayList<>();
+			}
+			if(deepLists.put(list, Boolean.TRUE) != null) {
+				throw new CyclicNestingException(depth);
+			}
+			deepPath.add(list);
+		}
+		
+		void leave() {
+			if(depth-- < CYCLE_CHECK_DEPTH) { return; }
+			deepLists.remove(deepPath.remove(deepPath.size() - 1));
+		}
+	}
+	
+	/**
+	 * Thrown when a list turns out to contain itself, so it would never finish flattening.
+	 */
+	public static class CyclicNestingException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		
+		public CyclicNestingException(int depth) {
+			super("A list contains itself - found again " + depth + " deep");
+		}
+	}
+	
+	/**
+	 * Thrown when the lists are nested deeper, or hold more integers, than limitDepth() or 
+	 * limitSize() allow.
+	 */
+	public static class LimitExceededException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		
+		public LimitExceededException(String message) {
+			super(message);
+		}
+		
+		static LimitExceededException tooDeep(int maxDepth) {
+			return new LimitExceededException("Lists are nested more than " + maxDepth + " deep");
+		}
+		
+		static LimitExceededException tooMany(int maxSize) {
+			return new LimitExceededException("More than " + maxSize + " integers to flatten");
+		}
+	}
 }
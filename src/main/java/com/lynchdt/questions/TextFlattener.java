@@ -0,0 +1,332 @@
+package com.lynchdt.questions;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+import com.google.common.base.Preconditions;
+import com.lynchdt.questions.topn.Timer;
+
+/**
+ * Flattens nested arrays straight from their text, e.g. [[1,2,[3]],4], without ever building
+ * the List<Object> and Integer tree Flattener needs. For a payload of a few Gb that tree is
+ * most of the memory and most of the garbage - every integer is an object and every list an
+ * array of references to them - just to be walked once and thrown away.
+ *
+ * Here the bytes are read once, a buffer at a time, from a channel or a memory mapped file,
+ * and each integer goes to an IntConsumer (or an IntStream, or an int[]) as soon as its last
+ * digit is read. The nesting itself only needs counting, plus where each open bracket was so
+ * that one that's never closed can be reported - memory goes with the depth, not the size.
+ *
+ * Anything that isn't a well formed nested array - a ] without its [, a [ never closed, a
+ * missing comma, a number too big for an int - is reported with a MalformedArrayException
+ * saying at which byte. Whitespace between the brackets, commas and numbers is fine.
+ *
+ * The input can only be read once.
+ */
+public class TextFlattener implements Closeable {
+
+	/**
+	 * What the next byte (other than whitespace) can be.
+	 */
+	private static final int START = 0;			/** [ */
+	private static final int FIRST = 1;			/** [, ] or a number, just after a [ */
+	private static final int ELEMENT = 2;		/** [ or a number, just after a comma */
+	private static final int AFTER = 3;			/** , or ], just after an element */
+	private static final int DONE = 4;			/** nothing, the outermost ] is closed */
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	/**
+	 * A mapped file is mapped this much at a time, since one ByteBuffer can't go past 2Gb.
+	 */
+	protected static final long MAP_REGION = 256L * 1024 * 1024;
+
+	private final ReadableByteChannel channel;
+	private final FileChannel mappedFile;
+	private ByteBuffer buffer;
+	/**
+	 * Offset in the input of the start of the buffer.
+	 */
+	private long base = 0;
+	private boolean started = false;
+
+	private int expecting = START;
+	private int depth = 0;
+	private long[] openedAt = new long[16];
+
+	private boolean inNumber = false;
+	private boolean negative;
+	private boolean hasDigits;
+	/**
+	 * The number being read, as its negative so that -2147483648 fits, like Long.parseLong().
+	 */
+	private long number;
+	private long numberStart;
+
+	public TextFlattener(ReadableByteChannel channel) {
+		Preconditions.checkNotNull(channel, "Please a channel to read nested arrays from");
+
+		this.channel = channel;
+		this.mappedFile = null;
+		this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		buffer.flip();
+	}
+
+	private TextFlattener(FileChannel mappedFile) {
+		this.channel = mappedFile;
+		this.mappedFile = mappedFile;
+		this.buffer = ByteBuffer.allocate(0);
+	}
+
+	/**
+	 * Reads the file through memory mapping rather than copying it into a buffer, so the only
+	 * copy of the bytes is in the page cache.
+	 */
+	public static TextFlattener ofMappedFile(Path path) throws IOException {
+		return new TextFlattener(FileChannel.open(path, StandardOpenOption.READ));
+	}
+
+	/**
+	 * Hands every integer to the sink, in order, returning how many there were. The sink will
+	 * have had every integer before the one that's malformed, if there is one.
+	 */
+	public long flattenTo(IntConsumer sink) throws IOException {
+		start();
+		long count = 0;
+		try {
+			while(advance()) {
+				sink.accept(value());
+				count++;
+			}
+		} catch(UncheckedIOException ex) {
+			throw ex.getCause();
+		}
+		return count;
+	}
+
+	public int[] getFlattenedAsArray() throws IOException {
+		IntStream.Builder values = IntStream.builder();
+		flattenTo(values);
+		return values.build().toArray();
+	}
+
+	/**
+	 * One integer at a time, read as they're asked for. Failing to read the input is an
+	 * UncheckedIOException, since an iterator can't throw an IOException.
+	 */
+	public PrimitiveIterator.OfInt getFlattenedLazily() {
+		start();
+		return new PrimitiveIterator.OfInt() {
+			private boolean ready = false;
+
+			@Override
+			public boolean hasNext() {
+				if(!ready) {
+					ready = advance();
+				}
+				return ready;
+			}
+
+			@Override
+			public int nextInt() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				ready = false;
+				return value();
+			}
+		};
+	}
+
+	/**
+	 * getFlattenedLazily() as a sequential IntStream, so it can stop reading as soon as it
+	 * has an answer.
+	 */
+	public IntStream getFlattenedAsStream() {
+		return StreamSupport.intStream(Spliterators.spliteratorUnknownSize(getFlattenedLazily(),
+				Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	private void start() {
+		if(started) {
+			throw new IllegalStateException("Already read - the input can only be flattened once");
+		}
+		started = true;
+	}
+
+	private int value() {
+		return (int) (negative ? number : -number);
+	}
+
+	/**
+	 * Reads on to the end of the next integer, or the end of the input. False if there are
+	 * no more integers. The byte after a number isn't used up, since it is the comma or ]
+	 * to check next time.
+	 */
+	private boolean advance() {
+		while(true) {
+			int position = buffer.position();
+			int limit = buffer.limit();
+			while(position < limit) {
+				byte b = buffer.get(position);
+				if(inNumber) {
+					if(b >= '0' && b <= '9') {
+						number = number * 10 - (b - '0');
+						hasDigits = true;
+						if(number < Integer.MIN_VALUE || (!negative && number == Integer.MIN_VALUE)) {
+							throw new MalformedArrayException("Number too big for an int", numberStart);
+						}
+						position++;
+						continue;
+					}
+					if(!hasDigits) {
+						throw new MalformedArrayException("Expected digits after -", base + position);
+					}
+					inNumber = false;
+					expecting = AFTER;
+					buffer.position(position);
+					return true;
+				}
+				position++;
+				if(b == ' ' || b == '\n' || b == '\r' || b == '\t') { continue; }
+				long offset = base + position - 1;
+				if(b == '[') {
+					if(expecting != START && expecting != FIRST && expecting != ELEMENT) {
+						throw unexpected(b, offset);
+					}
+					open(offset);
+					expecting = FIRST;
+				} else if(b == ']') {
+					if(depth == 0) {
+						throw new MalformedArrayException("] without a [ to close", offset);
+					}
+					if(expecting != FIRST && expecting != AFTER) {
+						throw unexpected(b, offset);
+					}
+					depth--;
+					expecting = depth == 0 ? DONE : AFTER;
+				} else if(b == ',') {
+					if(expecting != AFTER) {
+						throw unexpected(b, offset);
+					}
+					expecting = ELEMENT;
+				} else if(b == '-' || (b >= '0' && b <= '9')) {
+					if(expecting != FIRST && expecting != ELEMENT) {
+						throw unexpected(b, offset);
+					}
+					inNumber = true;
+					negative = b == '-';
+					hasDigits = !negative;
+					number = negative ? 0 : '0' - b;
+					numberStart = offset;
+				} else {
+					throw unexpected(b, offset);
+				}
+			}
+			buffer.position(position);
+			if(!refill()) {
+				break;
+			}
+		}
+		if(depth > 0) {
+			throw new MalformedArrayException("[ never closed", openedAt[depth - 1]);
+		}
+		if(expecting != DONE) {
+			throw new MalformedArrayException("No nested array to flatten", base);
+		}
+		return false;
+	}
+
+	private void open(long offset) {
+		if(depth == openedAt.length) {
+			openedAt = Arrays.copyOf(openedAt, depth * 2);
+		}
+		openedAt[depth++] = offset;
+	}
+
+	private MalformedArrayException unexpected(byte b, long offset) {
+		String what = b >= 32 && b < 127 ? "'" + (char) b + "'" : "byte " + (b & 0xff);
+		if(expecting == DONE) {
+			return new MalformedArrayException("Unexpected " + what + " after the outermost ]", offset);
+		}
+		return new MalformedArrayException("Unexpected " + what, offset);
+	}
+
+	/**
+	 * The next buffer of input - the next region of a mapped file, or as much as the channel
+	 * has. False at the end.
+	 */
+	private boolean refill() {
+		try {
+			base += buffer.limit();
+			if(mappedFile != null) {
+				long size = mappedFile.size();
+				if(base >= size) { return false; }
+				buffer = mappedFile.map(FileChannel.MapMode.READ_ONLY, base, Math.min(MAP_REGION, size - base));
+				return true;
+			}
+			buffer.clear();
+			int read;
+			do {
+				read = channel.read(buffer);
+			} while(read == 0);
+			buffer.flip();
+			return read > 0;
+		} catch(IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Thrown for text that isn't a well formed nested array, with the offset of the byte
+	 * where it went wrong - for a [ that's never closed, the offset of the [.
+	 */
+	public static class MalformedArrayException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		private final long offset;
+
+		public MalformedArrayException(String message, long offset) {
+			super(message + " at byte " + offset);
+			this.offset = offset;
+		}
+
+		public long getOffset() {
+			return offset;
+		}
+	}
+
+	public static void main(String argsv[]) throws Exception {
+		if(argsv.length<1) {
+			System.out.println("> java TextFlattener <file>");
+			System.out.println("Flattens a file of nested arrays e.g. [[1,2,[3]],4] without parsing it into lists first.");
+			System.exit(-1);
+		}
+		long[] sum = new long[1];
+		Timer timer = Timer.createAndStart();
+		long count;
+		try (TextFlattener flattener = TextFlattener.ofMappedFile(Paths.get(argsv[0]))) {
+			count = flattener.flattenTo((value) -> sum[0] += value);
+		}
+		timer.stop();
+		System.out.println("Flattened " + count + " integers adding up to " + sum[0] + " in " + timer.toString());
+	}
+}
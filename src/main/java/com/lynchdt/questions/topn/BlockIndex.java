@@ -0,0 +1,228 @@
+package com.lynchdt.questions.topn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A zone map for a numbers file - the minimum, maximum and count of the numbers in each
+ * block of roughly blockSize bytes. Blocks always start and end on line boundaries.
+ *
+ * With an index, a top-N run doesn't need to read everything. The blocks with the
+ * highest minimums guarantee enough values above some threshold before a byte is read
+ * (see threshold()), and reading the blocks with the highest maximums first raises
+ * it further. Any block whose maximum is below the threshold is skipped entirely. On
+ * sorted or clustered data that is nearly every block. On random data every block
+ * has a maximum near Long.MAX_VALUE and nothing is saved, other than the cost of
+ * reading a small index.
+ *
+ * Lives next to the file as file.idx and is only trusted while the file's size and
+ * modification time are as they were when it was built.
+ */
+public class BlockIndex {
+
+	public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+	private static final String MAGIC = "TOPN-BLOCK-INDEX";
+	private static final int VERSION = 1;
+
+	public static class Block {
+		private final long start;
+		private final long end;
+		private final long min;
+		private final long max;
+		private final long count;
+
+		protected Block(long start, long end, long min, long max, long count) {
+			this.start = start;
+			this.end = end;
+			this.min = min;
+			this.max = max;
+			this.count = count;
+		}
+
+		public long getStart() {
+			return start;
+		}
+
+		public long getEnd() {
+			return end;
+		}
+
+		public long getMin() {
+			return min;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		public long getCount() {
+			return count;
+		}
+	}
+
+	/**
+	 * Fed each number and the offset of the line it came from, in file order, by
+	 * a reader that is reading the whole file anyway.
+	 */
+	public static class Builder {
+		private final int blockSize;
+		private final List<Block> blocks = new ArrayList<>();
+		private long blockStart = 0;
+		private long min = Long.MAX_VALUE;
+		private long max = Long.MIN_VALUE;
+		private long count = 0;
+
+		public Builder(int blockSize) {
+			this.blockSize = blockSize;
+		}
+
+		public void add(long lineStart, long value) {
+			if(lineStart - blockStart >= blockSize) {
+				closeBlock(lineStart);
+			}
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+			count++;
+		}
+
+		private void closeBlock(long lineStart) {
+			blocks.add(new Block(blockStart, lineStart, min, max, count));
+			blockStart = lineStart;
+			min = Long.MAX_VALUE;
+			max = Long.MIN_VALUE;
+			count = 0;
+		}
+
+		public BlockIndex build(File file) {
+			if(file.length() > blockStart) {
+				closeBlock(file.length());
+			}
+			return new BlockIndex(file.length(), file.lastModified(), blockSize, blocks);
+		}
+	}
+
+	private final long fileSize;
+	private final long modified;
+	private final int blockSize;
+	private final List<Block> blocks;
+
+	protected BlockIndex(long fileSize, long modified, int blockSize, List<Block> blocks) {
+		this.fileSize = fileSize;
+		this.modified = modified;
+		this.blockSize = blockSize;
+		this.blocks = blocks;
+	}
+
+	public static String indexFileFor(String fileName) {
+		return fileName + ".idx";
+	}
+
+	/**
+	 * The index of the file if there is one and it is still valid, otherwise null.
+	 */
+	public static BlockIndex load(String fileName) throws Exception {
+		File file = new File(fileName);
+		File indexFile = new File(indexFileFor(fileName));
+		if(!indexFile.exists()) { return null; }
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+			if(!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION) { return null; }
+			long fileSize = in.readLong();
+			long modified = in.readLong();
+			if(fileSize != file.length() || modified != file.lastModified()) { return null; }
+			int blockSize = in.readInt();
+			int count = in.readInt();
+			List<Block> blocks = new ArrayList<>(count);
+			for(int i = 0; i < count; i++) {
+				blocks.add(new Block(in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+			}
+			return new BlockIndex(fileSize, modified, blockSize, blocks);
+		}
+	}
+
+	public void save(String fileName) throws Exception {
+		File target = new File(indexFileFor(fileName));
+		File temporary = new File(target.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+			out.writeUTF(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(fileSize);
+			out.writeLong(modified);
+			out.writeInt(blockSize);
+			out.writeInt(blocks.size());
+			for(Block block : blocks) {
+				out.writeLong(block.start);
+				out.writeLong(block.end);
+				out.writeLong(block.min);
+				out.writeLong(block.max);
+				out.writeLong(block.count);
+			}
+		}
+		Files.move(temporary.toPath(), target.toPath(),
+				StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	public List<Block> getBlocks() {
+		return blocks;
+	}
+
+	/**
+	 * Blocks in the order to read them - highest maximum first, so the threshold
+	 * rises as fast as possible and everything after the first block below it can go.
+	 */
+	public List<Block> readingPlan() {
+		List<Block> plan = new ArrayList<>(blocks);
+		Collections.sort(plan, (a, b) -> Long.compare(b.max, a.max));
+		return plan;
+	}
+
+	/**
+	 * A lower bound on the N-th largest value across all the indexed files, without
+	 * reading them. Every value in a block is at least its minimum, so going down the
+	 * blocks in order of minimum until there are N values, the last minimum will do.
+	 */
+	public static long threshold(List<BlockIndex> indexes, int N) {
+		List<Block> byMin = new ArrayList<>();
+		indexes.forEach((index) -> {
+			byMin.addAll(index.blocks);
+		});
+		Collections.sort(byMin, (a, b) -> Long.compare(b.min, a.min));
+		long count = 0;
+		for(Block block : byMin) {
+			count += block.count;
+			if(count >= N) {
+				return block.min;
+			}
+		}
+		return Long.MIN_VALUE;
+	}
+
+	/**
+	 * A separate indexer. This is just a top-1 scan that builds the indexes on the way.
+	 */
+	public static void main(String argsv[]) throws Exception {
+		if(argsv.length<2) {
+			System.out.println("> java BlockIndex <blockSize> file1 [file2 .. fileM] ");
+			System.exit(-1);
+		}
+		int blockSize = Integer.parseInt(argsv[0]);
+		List<String> files = new ArrayList<>();
+		for(int i = 1; i < argsv.length; i++) {
+			new File(indexFileFor(argsv[i])).delete();
+			files.add(argsv[i]);
+		}
+		TopN topN = new TopN(files, 1, 1, 100000);
+		topN.useBlockIndexes(blockSize);
+		topN.execute();
+	}
+}
@@ -1,6 +1,9 @@
 package com.lynchdt.questions.topn;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * A min-heap is a type of binary tree where every Node is greater than or equal to it's parent. 
@@ -15,6 +18,17 @@ import java.util.ArrayList;
  * iteration over the heap.
  * 
  * Implementation adapted from Intro to Algorithms - Chapter 6.
+ * 
+ * Each entry in the heap is a distinct value with a count of how many copies of it are
+ * in the top-N. Skewed data can have N copies of a handful of values (the sample output 
+ * in the README is mostly Long.MAX_VALUE), and storing and sifting each copy separately
+ * is wasted effort. The values and their counts are parallel long[] and int[] arrays, so
+ * a count moves with its value when sifting and nothing is boxed. A map of value to 
+ * position finds the entry for another copy of a value already in the heap, which is 
+ * then just a count increment. Evicting takes one copy off the root's count, and the 
+ * entry only goes when that reaches zero. Counts are only expanded back into copies for
+ * output - toString(), getHeap() and friends. So memory and sifting go with the number 
+ * of distinct values, not N.
  **/
 public class BoundedMinHeap {
 	/**
@@ -24,41 +38,104 @@ public class BoundedMinHeap {
  	 * 
  	 * This is still pretty interesting for Long integers. 
 	 */
-	private ArrayList<Long>heap;
+	private long[] values;
+	/**
+	 * How many copies of the value at the same position there are - never less than one
+	 * for an entry in the heap.
+	 */
+	private int[] copies;
+	/**
+	 * Where each value in the heap is.
+	 */
+	private Positions positions;
 	/**
 	 * Using Array here so N will have to be Integer.MAX_VALUE
 	 */
 	private int maxSize;
 	/**
-	 * Maintain this separate to heap.size() for purposes of 
+	 * Entries in the heap. Maintain this separate to entries for purposes of 
 	 * HeapSort later. 
 	 */
 	private int size = 0;
+	/**
+	 * Entries in the arrays.
+	 */
+	private int entries = 0;
+	/**
+	 * Values in the heap, counting every copy.
+	 */
+	private int count = 0;
+	
+	private static final int INITIAL_ENTRIES = 16;
 	
 	public BoundedMinHeap(int maxSize) {
 		this.maxSize = maxSize;
-		heap = new ArrayList<>(maxSize);
+		values = new long[Math.min(maxSize, INITIAL_ENTRIES)];
+		copies = new int[values.length];
+		positions = new Positions();
 	}
 	
 	protected int getSize() {
-		return size;
+		return count;
+	}
+	
+	/**
+	 * Entries, as opposed to values.
+	 */
+	protected int distinct() {
+		return entries;
 	}
 	
 	protected int getMaxSize() {
 		return maxSize;
 	}
 	
+	public void clear() {
+		positions.clear();
+		size = 0;
+		entries = 0;
+		count = 0;
+	}
+	
+	public boolean isFull() {
+		return count == maxSize;
+	}
+	
+	/**
+	 * The smallest of the top-N so far, which is what a new value has to beat.
+	 */
+	public long getMinimum() {
+		if(size == 0) { throw new RuntimeException("Heap underflow"); }
+		return values[0];
+	}
+	
+	/**
+	 * Evicts one copy of the minimum.
+	 */
 	protected long extractMin() {
 		if(size == 0) { throw new RuntimeException("Heap underflow"); }
-		long minimum = heap.get(0);
-		heap.set(0, heap.get(size-1));	
-		heap.remove(size-1);
-		size--;
-		/** May have broken heap property */
-		minHeapify(0);
+		long minimum = values[0];
+		removeFromRoot(1);
 		return minimum;
 	}
 	
+	private void removeFromRoot(int taken) {
+		int left = copiesOf(0) - taken;
+		count -= taken;
+		if(left > 0) {
+			copies[0] = left;
+			return;
+		}
+		positions.remove(values[0]);
+		size--;
+		entries--;
+		if(size > 0) {
+			move(size, 0);
+			/** May have broken heap property */
+			minHeapify(0);
+		}
+	}
+	
 	/**
 	 * This is the biggest customization here. 
 	 * 
@@ -67,55 +144,108 @@ public class BoundedMinHeap {
 	 * and the minimum element (heap[0]) to evict if necessary.
 	 */
 	public void insert(long value) {
-		if(size==0) {
-			heap.add(value);
-			size++;
+		insert(value, 1);
+	}
+	
+	/**
+	 * As insert(value), copies times over, but taking as many copies at once as
+	 * there is room for or as the root has to give up.
+	 */
+	public void insert(long value, int copies) {
+		while(copies > 0) {
+			int taken;
+			if(count < maxSize) {
+				/** Room for everything until full, smaller than the minimum or not */
+				taken = Math.min(copies, maxSize - count);
+			}
+			else if (size > 0 && values[0]<value) {
+				taken = Math.min(copies, copiesOf(0));
+				removeFromRoot(taken);
+			}
+			else {
+				return;
+			}
+			add(value, taken);
+			copies -= taken;
 		}
-		else if (heap.get(0)<value) {
-			if(heap.size()==maxSize) {
-				extractMin();
+	}
+	
+	/**
+	 * The only way an entry gets into the heap (bar setHeap()), so every entry has its count.
+	 */
+	private void add(long value, int taken) {
+		int position = positions.get(value);
+		if(position >= 0) {
+			copies[position] += taken;
+		} else {
+			if(entries == values.length) {
+				int capacity = Math.max(1, values.length * 2);
+				values = Arrays.copyOf(values, capacity);
+				copies = Arrays.copyOf(copies, capacity);
 			}
-			heap.add(Long.MAX_VALUE);
+			copies[entries] = taken;
+			entries++;
 			size++;
 			siftUp(size-1, value);
 		}
+		count += taken;
 	}
 	
 	/**
 	 * I think this is a nicer name than decrease-key. Set the value
 	 * at the index, then exchange with parents until in the right position.
+	 * The entry keeps its count.
 	 */
 	protected void siftUp(int index, long value) {
 		if (index > size-1) {
 			throw new RuntimeException("Index is bigger than heap");
 		}
-		heap.set(index, value);
-		while(index > 0 && heap.get(parent(index)) > heap.get(index)) {
+		/** Unless this is a new entry, and the slot still has whatever was there before */
+		if(positions.get(values[index]) == index) {
+			positions.remove(values[index]);
+		}
+		values[index] = value;
+		positions.put(value, index);
+		while(index > 0 && values[parent(index)] > values[index]) {
 			exchange(index, parent(index));
 			index = parent(index);
 		}
 	}
 	
 	protected void exchange(int first, int second) {
-		long temp = heap.get(first);
-	    heap.set(first, heap.get(second));
-	    heap.set(second, temp);
+		long value = values[first];
+		int copy = copies[first];
+		values[first] = values[second];
+		copies[first] = copies[second];
+		values[second] = value;
+		copies[second] = copy;
+		positions.put(values[first], first);
+		positions.put(values[second], second);
+	}
+	
+	/**
+	 * The entry at from goes to to, over whatever was there.
+	 */
+	private void move(int from, int to) {
+		values[to] = values[from];
+		copies[to] = copies[from];
+		positions.put(values[to], to);
 	}
 	
 	/**
-	 * There is recursion here - works given some unknown function of heap.size()
+	 * There is recursion here - works given some unknown function of the entries
 	 * and available stack.
 	 */
 	protected void minHeapify(int currentIndex) {
 		int lIndex = leftChild(currentIndex);
 		int rIndex = rightChild(currentIndex);
 		int smallestIndex;
-		if ( lIndex < size && heap.get(lIndex) < heap.get(currentIndex) ) {
+		if ( lIndex < size && values[lIndex] < values[currentIndex] ) {
 			smallestIndex = lIndex;
 		} else {
 			smallestIndex = currentIndex;
 		}
-		if (rIndex < size && heap.get(rIndex) < heap.get(smallestIndex)) {
+		if (rIndex < size && values[rIndex] < values[smallestIndex]) {
 			smallestIndex = rIndex;
 		}
 		if(smallestIndex!=currentIndex) {
@@ -134,29 +264,105 @@ public class BoundedMinHeap {
 		if(size==0) { return false; }
 		for(int parentIndex = 0; parentIndex <= size/2; parentIndex++) {
 			int lIndex = leftChild(parentIndex);
-			if(lIndex < size && heap.get(lIndex) < heap.get(parentIndex)) {
+			if(lIndex < size && values[lIndex] < values[parentIndex]) {
 					return false;
 			}
 			int rIndex = rightChild(parentIndex);
-			if(rIndex < size && heap.get(rIndex) < heap.get(parentIndex)) {
+			if(rIndex < size && values[rIndex] < values[parentIndex]) {
 				return false;
 			}		
 		}
 		return true;
 	}
 	
+	/**
+	 * Entry by entry, so N copies of a value cost one insert.
+	 */
 	public void merge(BoundedMinHeap otherHeap) {
-		heap.forEach((element) -> {
-			otherHeap.insert(element);
-		});
+		for(int i = 0; i < entries; i++) {
+			otherHeap.insert(values[i], copiesOf(i));
+		}
+	}
+	
+	/**
+	 * The contents highest first, leaving the heap alone. heapSort() leaves the array
+	 * in an order that is no longer a min-heap, so it is only fit for the very end.
+	 */
+	public List<Long> toSortedList() {
+		List<Long> sorted = getHeap();
+		sorted.sort(Collections.reverseOrder());
+		return sorted;
+	}
+	
+	/**
+	 * Every value highest first, as a primitive array. The distinct values are copied
+	 * out and sorted with a parallel sort, which for large N is a lot quicker than
+	 * heapSort() - that is single threaded and does a map update for every exchange.
+	 * Like heapSort() it leaves the entries in sorted order, highest first, so the heap
+	 * is only fit for reading after this.
+	 */
+	public long[] sortDescending() {
+		long[] sorted = Arrays.copyOf(values, entries);
+		Arrays.parallelSort(sorted);
+		int[] counted = new int[entries];
+		for(int i = 0; i < entries; i++) {
+			counted[i] = copiesOf(positions.get(sorted[i]));
+		}
+		long[] expanded = new long[count];
+		int next = 0;
+		for(int i = entries - 1; i >= 0; i--) {
+			int position = entries - 1 - i;
+			values[position] = sorted[i];
+			copies[position] = counted[i];
+			positions.put(sorted[i], position);
+			Arrays.fill(expanded, next, next + counted[i], sorted[i]);
+			next += counted[i];
+		}
+		return expanded;
 	}
 	
-	public ArrayList<Long> getHeap() {
-		return heap;
+	/**
+	 * How many values and their range, without sorting or printing them all. The
+	 * largest is somewhere in the leaves, so this is a scan of the entries.
+	 */
+	public String summary() {
+		if(size == 0) { return "no values"; }
+		long highest = values[0];
+		for(int i = size / 2; i < size; i++) {
+			highest = Math.max(highest, values[i]);
+		}
+		return count + " value(s) from " + values[0] + " to " + highest;
+	}
+	
+	/**
+	 * Every entry is put in with its count, so one without is a bookkeeping bug rather
+	 * than something to paper over.
+	 */
+	private int copiesOf(int position) {
+		if(position < 0 || position >= entries || copies[position] < 1) {
+			throw new IllegalStateException("No count for an entry at " + position);
+		}
+		return copies[position];
+	}
+	
+	/**
+	 * Every value, copies and all, in heap order (or sorted order after heapSort()).
+	 */
+	public List<Long> getHeap() {
+		List<Long> expanded = new ArrayList<>(count);
+		for(int i = 0; i < entries; i++) {
+			for(int copy = copiesOf(i); copy > 0; copy--) {
+				expanded.add(values[i]);
+			}
+		}
+		return expanded;
 	}
 
+	/**
+	 * Children are at 2i+1 and 2i+2, so this is (i-1)/2 rather than i/2.
+	 */
 	protected int parent(int position) {
-		return (position/2);
+		return ((position - 1)/2);
 	}
 	
 	protected int leftChild(int position) {
@@ -169,20 +375,107 @@ public class BoundedMinHeap {
 	
 	
 	protected BoundedMinHeap(ArrayList<Long> array) {
-		this.maxSize=array.size();
-		this.size=this.maxSize;
-		heap = array;
+		setHeap(array);
 	}
 	
+	/**
+	 * One copy of each element, which should all be different.
+	 */
 	protected void setHeap(ArrayList<Long> heap) {
-		this.heap=heap;
 		this.maxSize=heap.size();
 		this.size=this.maxSize;
+		this.entries=this.maxSize;
+		this.count=this.maxSize;
+		this.values = new long[maxSize];
+		this.copies = new int[maxSize];
+		this.positions = new Positions();
+		for(int i = 0; i < maxSize; i++) {
+			values[i] = heap.get(i);
+			copies[i] = 1;
+			positions.put(values[i], i);
+		}
 	}
 	
 	@Override
 	public String toString() {
-		return heap.toString();
+		return getHeap().toString();
+	}
+	
+	/**
+	 * Value to position without boxing either - a HashMap<Long, Integer> here made inserting
+	 * distinct values twice as slow. Open addressing with linear probing, and removal
+	 * shifts the rest of a run back rather than leaving tombstones. Positions are kept one
+	 * up, so that 0 marks an empty slot, and get() says -1 for a value that isn't there.
+	 */
+	private static final class Positions {
+		private long[] keys = new long[INITIAL_ENTRIES];
+		private int[] values = new int[INITIAL_ENTRIES];
+		private int size = 0;
+		
+		private int slot(long key) {
+			long hash = key * 0x9E3779B97F4A7C15L;
+			return (int) (hash ^ (hash >>> 32)) & (keys.length - 1);
+		}
+		
+		private int find(long key) {
+			int i = slot(key);
+			while(values[i] != 0 && keys[i] != key) {
+				i = (i + 1) & (keys.length - 1);
+			}
+			return i;
+		}
+		
+		int get(long key) {
+			return values[find(key)] - 1;
+		}
+		
+		void put(long key, int position) {
+			int i = find(key);
+			if(values[i] == 0) {
+				size++;
+			}
+			keys[i] = key;
+			values[i] = position + 1;
+			if(size * 2 > keys.length) {
+				grow();
+			}
+		}
+		
+		void remove(long key) {
+			int i = find(key);
+			if(values[i] == 0) { return; }
+			int mask = keys.length - 1;
+			for(int j = (i + 1) & mask; values[j] != 0; j = (j + 1) & mask) {
+				int home = slot(keys[j]);
+				/** Stays put if its home slot is cyclically in (i, j] */
+				boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+				if(!stays) {
+					keys[i] = keys[j];
+					values[i] = values[j];
+					i = j;
+				}
+			}
+			values[i] = 0;
+			size--;
+		}
+		
+		void clear() {
+			Arrays.fill(values, 0);
+			size = 0;
+		}
+		
+		private void grow() {
+			long[] oldKeys = keys;
+			int[] oldValues = values;
+			keys = new long[oldKeys.length * 2];
+			values = new int[oldValues.length * 2];
+			size = 0;
+			for(int i = 0; i < oldKeys.length; i++) {
+				if(oldValues[i] != 0) {
+					put(oldKeys[i], oldValues[i] - 1);
+				}
+			}
+		}
 	}
 	
 	public void heapSort() {
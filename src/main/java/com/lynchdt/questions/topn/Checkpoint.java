@@ -0,0 +1,194 @@
+package com.lynchdt.questions.topn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Everything needed to pick a scan up where it left off - how far into each file
+ * we got (in bytes and lines) and the overall top-N (plus any summaries) of everything
+ * before that point.
+ *
+ * Also the size and modification time of each file, and how lines were parsed, since
+ * an offset into a file that has since been rewritten or truncated is mid-line at best,
+ * and a top-N kept under other parsing options isn't this scan's top-N.
+ *
+ * Only consistent if taken while the readers are paused and every value they have
+ * queued has made it into a worker's heap and been merged. TopN.checkpoint() sees to that.
+ *
+ * Saving writes to a temporary file next to the checkpoint, syncs it to disk and then
+ * renames it over the old one, so a crash part way through leaves the previous checkpoint intact.
+ */
+public class Checkpoint {
+
+	private static final String MAGIC = "TOPN-CHECKPOINT";
+	private static final int VERSION = 2;
+
+	private final int N;
+	private final List<String> files;
+	/**
+	 * Field, delimiter and bad line policy, as TopN describes them.
+	 */
+	private final String options;
+	private final long[] sizes;
+	private final long[] modified;
+	private final long[] offsets;
+	private final long[] linesRead;
+	private final List<Long> top;
+	private final SpaceSavingSummary frequencies;
+	private final QuantileSketch quantiles;
+
+	/**
+	 * Takes each file's size and modification time as they are now.
+	 */
+	public Checkpoint(int N, List<String> files, String options, long[] offsets, long[] linesRead, 
+					List<Long> top, SpaceSavingSummary frequencies, QuantileSketch quantiles) {
+		this(N, files, options, new long[files.size()], new long[files.size()], offsets, linesRead, 
+				top, frequencies, quantiles);
+		for(int i = 0; i < files.size(); i++) {
+			File file = new File(files.get(i));
+			sizes[i] = file.length();
+			modified[i] = file.lastModified();
+		}
+	}
+
+	private Checkpoint(int N, List<String> files, String options, long[] sizes, long[] modified, 
+					long[] offsets, long[] linesRead, List<Long> top, SpaceSavingSummary frequencies, 
+					QuantileSketch quantiles) {
+		this.N = N;
+		this.files = files;
+		this.options = options;
+		this.sizes = sizes;
+		this.modified = modified;
+		this.offsets = offsets;
+		this.linesRead = linesRead;
+		this.top = top;
+		this.frequencies = frequencies;
+		this.quantiles = quantiles;
+	}
+
+	/**
+	 * Only resume a scan of the same, unchanged, files for the same N, parsed the same way.
+	 */
+	public boolean matches(List<String> files, int N, String options) {
+		if(this.N != N || !this.files.equals(files) || !this.options.equals(options)) { 
+			return false; 
+		}
+		for(int i = 0; i < files.size(); i++) {
+			File file = new File(files.get(i));
+			if(file.length() != sizes[i] || file.lastModified() != modified[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void save(String path) throws Exception {
+		File target = new File(path);
+		File temporary = new File(path + ".tmp");
+		try (FileOutputStream fileStream = new FileOutputStream(temporary)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileStream));
+			write(out);
+			out.flush();
+			fileStream.getFD().sync();
+		}
+		Files.move(temporary.toPath(), target.toPath(),
+				StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private void write(DataOutputStream out) throws Exception {
+		out.writeUTF(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(N);
+		out.writeUTF(options);
+		out.writeInt(files.size());
+		for(int i = 0; i < files.size(); i++) {
+			out.writeUTF(files.get(i));
+			out.writeLong(sizes[i]);
+			out.writeLong(modified[i]);
+			out.writeLong(offsets[i]);
+			out.writeLong(linesRead[i]);
+		}
+		out.writeInt(top.size());
+		for(long value : top) {
+			out.writeLong(value);
+		}
+		out.writeBoolean(frequencies != null);
+		if(frequencies != null) {
+			frequencies.writeTo(out);
+		}
+		out.writeBoolean(quantiles != null);
+		if(quantiles != null) {
+			quantiles.writeTo(out);
+		}
+	}
+
+	/**
+	 * Returns null if there is no checkpoint at the path.
+	 */
+	public static Checkpoint load(String path) throws Exception {
+		File file = new File(path);
+		if(!file.exists()) { return null; }
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if(!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION) {
+				throw new RuntimeException(path + " is not a checkpoint this version can read");
+			}
+			int N = in.readInt();
+			String options = in.readUTF();
+			int fileCount = in.readInt();
+			List<String> files = new ArrayList<>(fileCount);
+			long[] sizes = new long[fileCount];
+			long[] modified = new long[fileCount];
+			long[] offsets = new long[fileCount];
+			long[] linesRead = new long[fileCount];
+			for(int i = 0; i < fileCount; i++) {
+				files.add(in.readUTF());
+				sizes[i] = in.readLong();
+				modified[i] = in.readLong();
+				offsets[i] = in.readLong();
+				linesRead[i] = in.readLong();
+			}
+			int topCount = in.readInt();
+			List<Long> top = new ArrayList<>(topCount);
+			for(int i = 0; i < topCount; i++) {
+				top.add(in.readLong());
+			}
+			SpaceSavingSummary frequencies = in.readBoolean() ? SpaceSavingSummary.readFrom(in) : null;
+			QuantileSketch quantiles = in.readBoolean() ? QuantileSketch.readFrom(in) : null;
+			return new Checkpoint(N, files, options, sizes, modified, offsets, linesRead, top, 
+					frequencies, quantiles);
+		}
+	}
+
+	public static void delete(String path) {
+		new File(path).delete();
+	}
+
+	public long getOffset(int fileIndex) {
+		return offsets[fileIndex];
+	}
+
+	public long getLinesRead(int fileIndex) {
+		return linesRead[fileIndex];
+	}
+
+	public List<Long> getTop() {
+		return top;
+	}
+
+	public SpaceSavingSummary getFrequencies() {
+		return frequencies;
+	}
+
+	public QuantileSketch getQuantiles() {
+		return quantiles;
+	}
+}
@@ -0,0 +1,110 @@
+package com.lynchdt.questions.topn;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded top-N that any number of threads can insert into at once.
+ *
+ * It is split into stripes, each a BoundedMinHeap of N with its own lock. A thread
+ * inserts into its home stripe (picked by thread id), or the next free one if that
+ * is busy, so with as many stripes as threads they hardly ever wait on each other.
+ * Every stripe keeps N values, so the top-N of the whole is always the top-N of the
+ * union of stripes.
+ *
+ * Most values don't make the top-N, and those are turned away before any lock - one
+ * volatile read of a shared floor. A full stripe has N values at or above its minimum,
+ * so that minimum is a lower bound on the overall N-th largest and the floor is raised
+ * to it. The floor can be a SharedThreshold the readers filter on too.
+ *
+ * snapshot() gives the current top-N at any time without stopping the inserting threads
+ * for longer than it takes to copy one stripe.
+ */
+public class ConcurrentTopN {
+
+	private static class Stripe {
+		private final ReentrantLock lock = new ReentrantLock();
+		private final BoundedMinHeap heap;
+
+		private Stripe(int N) {
+			heap = new BoundedMinHeap(N);
+		}
+	}
+
+	private final int N;
+	private final Stripe[] stripes;
+	private final SharedThreshold floor;
+
+	public ConcurrentTopN(int N, int stripeCount, SharedThreshold floor) {
+		if(N <= 0 || stripeCount <= 0 || floor==null) {
+			throw new IllegalArgumentException("Invalid concurrent top-N parameters");
+		}
+		this.N = N;
+		this.floor = floor;
+		stripes = new Stripe[stripeCount];
+		for(int i = 0; i < stripeCount; i++) {
+			stripes[i] = new Stripe(N);
+		}
+	}
+
+	public void insert(long value) {
+		if(floor.excludes(value)) { return; }
+		Stripe stripe = lockStripe();
+		try {
+			stripe.heap.insert(value);
+			if(stripe.heap.isFull()) {
+				floor.raiseTo(stripe.heap.getMinimum());
+			}
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	/**
+	 * The home stripe, unless another thread has it and some other stripe is free.
+	 */
+	private Stripe lockStripe() {
+		int home = (int) (Thread.currentThread().getId() % stripes.length);
+		for(int i = 0; i < stripes.length; i++) {
+			Stripe stripe = stripes[(home + i) % stripes.length];
+			if(stripe.lock.tryLock()) { return stripe; }
+		}
+		stripes[home].lock.lock();
+		return stripes[home];
+	}
+
+	/**
+	 * The top-N so far, a stripe at a time.
+	 */
+	public BoundedMinHeap snapshot() {
+		BoundedMinHeap top = new BoundedMinHeap(N);
+		for(Stripe stripe : stripes) {
+			stripe.lock.lock();
+			try {
+				stripe.heap.merge(top);
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+		return top;
+	}
+
+	/**
+	 * Moves everything so far into another heap, leaving the stripes empty. The floor
+	 * stays where it is, since the other heap now holds the values that justified it.
+	 */
+	public void drainInto(BoundedMinHeap other) {
+		for(Stripe stripe : stripes) {
+			stripe.lock.lock();
+			try {
+				stripe.heap.merge(other);
+				stripe.heap.clear();
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+	}
+
+	public long getFloor() {
+		return floor.get();
+	}
+}
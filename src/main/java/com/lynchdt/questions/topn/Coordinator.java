@@ -0,0 +1,376 @@
+package com.lynchdt.questions.topn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Top-N across several processes, or machines. The coordinator splits the files into
+ * chunks of roughly chunkSize bytes and hands them out over TCP to RemoteWorkers, one
+ * at a time. Each worker scans its chunk with the usual reader/TopNWorker pipeline and
+ * sends back the chunk's top-N, which the coordinator merges into the overall heap.
+ * More worker processes means more chunks in flight - nothing else needs configuring.
+ *
+ * Workers must see the files at the same paths, so either the same machine or a shared
+ * file system.
+ *
+ * Borrowing from MapReduce, two things can go wrong with a worker:
+ * - Lost. Its connection drops, or it says nothing for lostMillis. Whatever chunk it had
+ *   goes back on the list for someone else, up to MAX_ATTEMPTS times.
+ * - Straggling. It is still going, but slowly. Once there is nothing else left to hand
+ *   out, a chunk that has been running for STRAGGLER_FACTOR times the average chunk (and
+ *   at least stragglerMillis) gets a backup copy on an idle worker. Whichever copy
+ *   finishes first counts, the other is ignored - merging both would count duplicates twice.
+ *
+ * Each chunk also goes out with the current N-th largest value, if there is one, so the
+ * workers can drop anything below it.
+ */
+public class Coordinator {
+
+	public static final long DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+	protected static final String MAGIC = "TOPN-COORDINATOR";
+	protected static final int DONE = 0;
+	protected static final int CHUNK = 1;
+
+	private static final int MAX_ATTEMPTS = 3;
+	private static final int STRAGGLER_FACTOR = 3;
+	private final int UPDATE_INTERVAL = 1000;
+	private final int BACKOFF_INTERVAL = 100;
+
+	protected static class Chunk {
+		private final int id;
+		private final String fileName;
+		private final long start;
+		private final long end;
+		private long startedAt;
+		/**
+		 * Copies of this chunk currently out with workers.
+		 */
+		private int running = 0;
+		private int attempts = 0;
+		private boolean done = false;
+
+		private Chunk(int id, String fileName, long start, long end) {
+			this.id = id;
+			this.fileName = fileName;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public String toString() {
+			return fileName + "[" + start + ", " + end + ")";
+		}
+	}
+
+	private final List<String> files;
+	private final int N;
+	private final int port;
+	private long chunkSize = DEFAULT_CHUNK_SIZE;
+	private long stragglerMillis = 10000;
+	private int lostMillis = 600000;
+
+	private final BoundedMinHeap overallHeap;
+	private final SharedThreshold threshold = new SharedThreshold();
+
+	/**
+	 * All guarded by this.
+	 */
+	private final List<Chunk> chunks = new ArrayList<>();
+	private final LinkedList<Chunk> pending = new LinkedList<>();
+	private int remaining;
+	private long completedMillis = 0;
+	private int completed = 0;
+	private RuntimeException failure;
+
+	private ServerSocket server;
+	private ExecutorService connectionExecutor;
+	private final List<Socket> connections = Collections.synchronizedList(new ArrayList<>());
+
+	public Coordinator(List<String> files, int N, int port) {
+		if(files==null || files.isEmpty() || N <= 0 || port < 0) {
+			throw new IllegalArgumentException("Invalid coordinator parameters");
+		}
+		this.files = files;
+		this.N = N;
+		this.port = port;
+		this.overallHeap = new BoundedMinHeap(N);
+	}
+
+	public void splitInto(long chunkSize) {
+		if(chunkSize <= 0) {
+			throw new IllegalArgumentException("Invalid chunk size");
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * The least time a chunk runs before it can be considered a straggler.
+	 */
+	public void backUpStragglersAfter(long millis) {
+		this.stragglerMillis = millis;
+	}
+
+	/**
+	 * How long a worker can go without a word before it is considered lost.
+	 */
+	public void giveUpOnWorkersAfter(int millis) {
+		if(millis <= 0) {
+			throw new IllegalArgumentException("Invalid lost worker timeout");
+		}
+		this.lostMillis = millis;
+	}
+
+	/**
+	 * Start accepting workers. Returns the port, which is handy when asking for port 0.
+	 */
+	public int listen() throws IOException {
+		if(server==null) {
+			server = new ServerSocket(port);
+		}
+		return server.getLocalPort();
+	}
+
+	public void execute() throws Exception {
+		planChunks();
+		listen();
+		System.out.println("Coordinating " + chunks.size() + " chunk(s) on port " + server.getLocalPort());
+		connectionExecutor = Executors.newCachedThreadPool();
+		connectionExecutor.submit(() -> {
+			acceptWorkers();
+		});
+		try {
+			reportProgress();
+		} finally {
+			cleanUp();
+		}
+		sortAndPrint();
+	}
+
+	protected void planChunks() {
+		for(String file : files) {
+			long length = new File(file).length();
+			for(long start = 0; start < length; start += chunkSize) {
+				Chunk chunk = new Chunk(chunks.size(), file, start, Math.min(length, start + chunkSize));
+				chunks.add(chunk);
+				pending.add(chunk);
+			}
+		}
+		remaining = chunks.size();
+	}
+
+	private void acceptWorkers() {
+		try {
+			while(!server.isClosed()) {
+				Socket socket = server.accept();
+				connections.add(socket);
+				connectionExecutor.submit(() -> {
+					serve(socket);
+				});
+			}
+		} catch(IOException ex) {
+			/** Closed once every chunk is done */
+		}
+	}
+
+	/**
+	 * One thread per worker, handing it a chunk at a time until there are none left.
+	 */
+	private void serve(Socket socket) {
+		Chunk chunk = null;
+		try {
+			socket.setSoTimeout(lostMillis);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.writeUTF(MAGIC);
+			out.writeInt(N);
+			out.flush();
+			while((chunk = nextChunk()) != null) {
+				out.writeInt(CHUNK);
+				out.writeInt(chunk.id);
+				out.writeUTF(chunk.fileName);
+				out.writeLong(chunk.start);
+				out.writeLong(chunk.end);
+				out.writeLong(threshold.get());
+				out.flush();
+				if(in.readInt() != chunk.id) {
+					throw new IOException("Result for the wrong chunk from " + socket.getRemoteSocketAddress());
+				}
+				long[] top = new long[in.readInt()];
+				for(int i = 0; i < top.length; i++) {
+					top[i] = in.readLong();
+				}
+				complete(chunk, top);
+				chunk = null;
+			}
+			out.writeInt(DONE);
+			out.flush();
+		} catch(Exception ex) {
+			if(chunk!=null) {
+				lost(chunk, socket, ex);
+			}
+		} finally {
+			close(socket);
+		}
+	}
+
+	/**
+	 * The next chunk to hand out, a backup copy of a straggler, or null once there's
+	 * nothing left to do. Waits while everything is running and nothing is straggling yet.
+	 */
+	private synchronized Chunk nextChunk() throws InterruptedException {
+		while(remaining > 0 && failure==null) {
+			Chunk chunk = pending.isEmpty() ? findStraggler() : pending.removeFirst();
+			if(chunk!=null) {
+				if(chunk.running==0) {
+					chunk.startedAt = System.currentTimeMillis();
+				}
+				chunk.running++;
+				return chunk;
+			}
+			wait(BACKOFF_INTERVAL);
+		}
+		return null;
+	}
+
+	private Chunk findStraggler() {
+		long slow = Math.max(stragglerMillis, completed==0 ? 0 : STRAGGLER_FACTOR * completedMillis / completed);
+		long now = System.currentTimeMillis();
+		for(Chunk chunk : chunks) {
+			if(!chunk.done && chunk.running==1 && now - chunk.startedAt >= slow) {
+				System.out.println("Chunk " + chunk + " is straggling, running a backup copy");
+				return chunk;
+			}
+		}
+		return null;
+	}
+
+	private synchronized void complete(Chunk chunk, long[] top) {
+		chunk.running--;
+		if(chunk.done) { return; }
+		chunk.done = true;
+		remaining--;
+		completed++;
+		completedMillis += System.currentTimeMillis() - chunk.startedAt;
+		for(long value : top) {
+			overallHeap.insert(value);
+		}
+		if(overallHeap.isFull()) {
+			threshold.raiseTo(overallHeap.getMinimum());
+		}
+		notifyAll();
+	}
+
+	private synchronized void lost(Chunk chunk, Socket socket, Exception ex) {
+		chunk.running--;
+		if(chunk.done || chunk.running > 0) { return; }
+		System.err.println("Lost worker " + socket.getRemoteSocketAddress() + " on chunk " + chunk + " - " + ex);
+		chunk.attempts++;
+		if(chunk.attempts >= MAX_ATTEMPTS) {
+			failure = new RuntimeException("Chunk " + chunk + " failed " + chunk.attempts + " times, giving up");
+		} else {
+			pending.addFirst(chunk);
+		}
+		notifyAll();
+	}
+
+	private synchronized void reportProgress() throws Exception {
+		while(remaining > 0 && failure==null) {
+			wait(UPDATE_INTERVAL);
+			System.out.println("Top " + N + " after " + (chunks.size() - remaining) + " of "
+					+ chunks.size() + " chunk(s), " + overallHeap.summary());
+		}
+		if(failure!=null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Any worker still running a chunk nobody needs any more finds its connection closed.
+	 */
+	public void cleanUp() {
+		try {
+			if(server!=null) {
+				server.close();
+			}
+		} catch(IOException ex) {
+			System.err.println("Could not close " + ex);
+		}
+		synchronized(connections) {
+			connections.forEach((socket) -> {
+				close(socket);
+			});
+		}
+		if(connectionExecutor!=null) {
+			connectionExecutor.shutdownNow();
+		}
+	}
+
+	private void close(Socket socket) {
+		try {
+			socket.close();
+		} catch(IOException ex) {
+			/** Going anyway */
+		}
+	}
+
+	protected void sortAndPrint() throws Exception {
+		try (ResultWriter writer = ResultWriter.toConsole(System.out, N)) {
+			writer.write(overallHeap.sortDescending());
+		}
+	}
+
+	protected BoundedMinHeap getHeap() {
+		return overallHeap;
+	}
+
+	public static void main(String argsv[]) throws Exception {
+		if(argsv.length<3) {
+			System.out.println("> java Coordinator <n> <port> [--option=value ..] file1 [file2 .. fileM] ");
+			System.out.println("Then start any number of RemoteWorkers pointing at this host and port.");
+			System.out.println("Options:");
+			System.out.println("  --chunk=<bytes>          bytes of a file handed out at a time, default 64Mb");
+			System.out.println("  --straggler-secs=<s>     least time before a slow chunk gets a backup copy, default 10");
+			System.out.println("  --lost-secs=<s>          silence before a worker is given up on, default 600");
+			System.exit(-1);
+		}
+		int N = Integer.parseInt(argsv[0]);
+		int port = Integer.parseInt(argsv[1]);
+		List<String> files = new ArrayList<>();
+		List<String> options = new ArrayList<>();
+		for(int i = 2; i < argsv.length; i++) {
+			if(argsv[i].startsWith("--")) {
+				options.add(argsv[i].substring(2));
+			} else {
+				files.add(argsv[i]);
+			}
+		}
+		Coordinator coordinator = new Coordinator(files, N, port);
+		for(String option : options) {
+			String[] nameAndValue = option.split("=", 2);
+			String value = nameAndValue.length > 1 ? nameAndValue[1] : "";
+			switch(nameAndValue[0]) {
+				case "chunk": coordinator.splitInto(Long.parseLong(value)); break;
+				case "straggler-secs": coordinator.backUpStragglersAfter(Long.parseLong(value) * 1000); break;
+				case "lost-secs": coordinator.giveUpOnWorkersAfter(Integer.parseInt(value) * 1000); break;
+				default: throw new IllegalArgumentException("Unknown option " + option);
+			}
+		}
+		Timer timer = Timer.createAndStart();
+		coordinator.execute();
+		timer.stop();
+		System.out.println("Complete in " + timer.toString());
+	}
+}
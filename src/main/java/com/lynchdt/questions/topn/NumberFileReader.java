@@ -1,13 +1,22 @@
 package com.lynchdt.questions.topn;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Reads an ASCII file with one signed long integer per line and drops
  * onto a work queue for processing.
+ *
+ * Lines are found by scanning raw bytes for '\n' rather than going through a
+ * BufferedReader. That way a line is only handed on once it is complete, which
+ * matters when following a file that is still being written to - the last line
+ * may be half there.
  */
 public class NumberFileReader implements Runnable {
 	/**
@@ -15,26 +24,226 @@ public class NumberFileReader implements Runnable {
 	 */
 	private long readLimit;
 	private long readCount;
-	private boolean finished = false;
-	
+	private volatile boolean finished = false;
+	private volatile Exception failure;
+	private volatile boolean stopped = false;
+	/**
+	 * Counted down when this reader stops, whether it finished or failed.
+	 */
+	private CountDownLatch done;
+
+	/**
+	 * When following, hitting the end of the file means waiting for more
+	 * to be appended rather than finishing.
+	 */
+	private boolean follow = false;
+	private volatile boolean following = true;
+	private final int FOLLOW_INTERVAL = 10;
+
 	private final String fileName;
-	
+
 	private final BlockingQueue<Long> workQueue;
-	
+
 	private FileInputStream inStream;
-	private BufferedReader readBuffer;
+	/**
+	 * Only when asked for. Otherwise the file is read a buffer at a time as it is parsed.
+	 */
+	private ReadAhead readAhead;
+	private int readAheadBlockSize;
+	private int readAheadDepth;
+
+	/**
+	 * Parsed values wait here until there are enough to filter together, or the
+	 * buffer's lines are all consumed. Always empty between calls to readSomeLines,
+	 * so a paused reader has queued every line before its offset.
+	 */
+	private final LineParser parser = new LineParser();
+	private RejectPolicy rejects = RejectPolicy.skip();
+
+	private final int BATCH_SIZE = 256;
+	private final long[] batch = new long[BATCH_SIZE];
+	private int batched = 0;
+
+	private final int BUFFER_SIZE = 64 * 1024;
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	/**
+	 * Bytes in [start, end) of the buffer have been read from the file but not
+	 * yet consumed as a line.
+	 */
+	private int start = 0;
+	private int end = 0;
+	/**
+	 * Where buffer[0] is in the file. The next line to be consumed starts at
+	 * bufferOffset + start, which is what a checkpoint records.
+	 */
+	private long bufferOffset = 0;
+	/**
+	 * Lines starting at or after this offset are not for this reader.
+	 */
+	private long rangeEnd = Long.MAX_VALUE;
+	/**
+	 * Only when reading a chunk of the file. The line running over the start of the
+	 * chunk belongs to the chunk before, so is skipped.
+	 */
+	private boolean ranged = false;
+	/**
+	 * Values actually put on the queue, as opposed to lines read. 
+	 */
+	private long enqueued = 0;
+	/**
+	 * Only kept when this file's own top values are wanted for the summary cache.
+	 */
+	private BoundedMinHeap fileTop;
+	private boolean resumed = false;
+	
+	/**
+	 * Values below this can't make the top-N, so aren't worth queueing. Only set when 
+	 * nothing else needs to see every value.
+	 */
+	private SharedThreshold threshold;
+	/**
+	 * Built while reading the whole file, or followed to read only some of it.
+	 */
+	private BlockIndex.Builder indexBuilder;
+	private List<BlockIndex.Block> plan;
+	private int blocksRead = 0;
+	private int blocksSkipped = 0;
 	
+	/**
+	 * Held while consuming a buffer's worth of lines. Holding it from another
+	 * thread pauses this reader at a line boundary, so its offset matches exactly
+	 * what it has queued. Fair, since this reader lets go and takes it again for
+	 * every buffer - unfair, it can win that race every time and a pause never happens.
+	 */
+	private final ReentrantLock progressLock = new ReentrantLock(true);
+
 	public NumberFileReader(BlockingQueue<Long> workQueue, String fileName) {
 		this(workQueue, fileName, -1);
 	}
-	
+
 	public NumberFileReader(BlockingQueue<Long> workQueue, String fileName,
 							int readLimit) {
 		this.workQueue = workQueue; 
 		this.readLimit=readLimit;
 		this.fileName=fileName;
 	}
+
+	/**
+	 * Keep reading lines as they are appended to the file, until stopFollowing().
+	 */
+	public void follow() {
+		this.follow = true;
+	}
+
+	public void stopFollowing() {
+		this.following = false;
+	}
+
+	/**
+	 * Stop at the next line, followed or not.
+	 */
+	public void stop() {
+		this.stopped = true;
+		this.following = false;
+	}
+	
+	/**
+	 * Resume a previous scan that got as far as the given byte offset and line count. 
+	 */
+	public void startAt(long offset, long linesRead) {
+		this.bufferOffset = offset;
+		this.readCount = linesRead;
+		this.resumed = true;
+	}
+	
+	/**
+	 * Read one field of a delimited file rather than the whole line, counting from 1.
+	 */
+	public void selectField(char delimiter, int field) {
+		parser.selectField(delimiter, field);
+	}
+	
+	/**
+	 * Lines that aren't a plain long are skipped without a word by default.
+	 */
+	public void handleBadLines(RejectPolicy rejects) {
+		this.rejects = rejects;
+	}
+	
+	/**
+	 * Keep depth blocks of blockSize bytes being read in the background while parsing.
+	 */
+	public void readAhead(int blockSize, int depth) {
+		if(blockSize <= 0 || depth <= 0) {
+			throw new IllegalArgumentException("Invalid read ahead parameters");
+		}
+		this.readAheadBlockSize = blockSize;
+		this.readAheadDepth = depth;
+	}
+	
+	/**
+	 * Only read the lines that start in [start, end). Chunks that meet end to end
+	 * between them read every line of the file exactly once.
+	 */
+	public void readRange(long start, long end) {
+		this.bufferOffset = Math.max(0, start - 1);
+		this.rangeEnd = end;
+		this.ranged = true;
+	}
+	
+	/**
+	 * Also keep the top M values of this file alone. With no work queue that's all
+	 * a reader does.
+	 */
+	public void keepTop(int M) {
+		fileTop = new BoundedMinHeap(M);
+	}
+	
+	/**
+	 * Drop values below the threshold rather than queueing them.
+	 */
+	public void filterBelow(SharedThreshold threshold) {
+		this.threshold = threshold;
+	}
+	
+	/**
+	 * Build a block index of the file while reading it.
+	 */
+	public void buildIndex(int blockSize) {
+		indexBuilder = new BlockIndex.Builder(blockSize);
+	}
+	
+	/**
+	 * Only read the given blocks, in the given order (highest maximum first), and stop
+	 * at the first block whose maximum is below the threshold.
+	 */
+	public void readBlocks(List<BlockIndex.Block> plan, SharedThreshold threshold) {
+		this.plan = plan;
+		this.threshold = threshold;
+	}
+	
+	public void countDownWhenDone(CountDownLatch done) {
+		this.done = done;
+	}
+	
+	/**
+	 * Blocks until this reader is between lines and keeps it there until resume(). Must be
+	 * resumed from the same thread. Gives up after millis and returns false - a reader 
+	 * stuck putting a batch on a queue nobody is taking from can't get between lines.
+	 */
+	public boolean pause(long millis) throws InterruptedException {
+		return progressLock.tryLock(millis, TimeUnit.MILLISECONDS);
+	}
 	
+	/**
+	 * Does nothing unless paused by this thread.
+	 */
+	public void resume() {
+		if(progressLock.isHeldByCurrentThread()) {
+			progressLock.unlock();
+		}
+	}
+
 	@Override
 	public void run() {
 		try {
@@ -42,61 +251,301 @@ public class NumberFileReader implements Runnable {
 			finished = true;
 		}
 		catch(Exception ex) {
+			failure = ex;
 			ex.printStackTrace();
 		}
+		finally {
+			if(done!=null) {
+				done.countDown();
+			}
+		}
 	}
-	
+
 	public void execute() throws Exception {
 		openForReading();
-		readAndQueue();
+		if(plan==null) {
+			if(ranged && bufferOffset > 0) {
+				skipPartialLine();
+			}
+			readAndQueue();
+		} else {
+			readPlannedBlocks();
+		}
 		cleanUp();
 	}
-	
+
 	private void openForReading() throws Exception {
+		if(readAheadDepth > 0) {
+			readAhead = new ReadAhead(fileName, readAheadBlockSize, readAheadDepth);
+			readAhead.position(bufferOffset, Long.MAX_VALUE);
+			return;
+		}
 		inStream = new FileInputStream(fileName);
-		readBuffer = new BufferedReader(new InputStreamReader(inStream));
+		if(bufferOffset > 0) {
+			inStream.getChannel().position(bufferOffset);
+		}
+	}
+
+	/**
+	 * Positioned one byte before the range, so skipping up to and including the next 
+	 * line ending lands on the first line starting in it.
+	 */
+	private void skipPartialLine() throws Exception {
+		while(true) {
+			int newLine = nextNewLine();
+			if(newLine >= 0) {
+				start = newLine + 1;
+				return;
+			}
+			start = end;
+			if(!fill()) { return; }
+		}
+	}
+
+	private void readPlannedBlocks() throws Exception {
+		for(int i = 0; i < plan.size(); i++) {
+			BlockIndex.Block block = plan.get(i);
+			if(threshold.excludes(block.getMax())) {
+				/** The rest have even smaller maximums */
+				blocksSkipped += plan.size() - i;
+				return;
+			}
+			moveTo(block.getStart(), block.getEnd());
+			readAndQueue();
+			blocksRead++;
+		}
 	}
 	
+	/**
+	 * Blocks end on a line boundary, so there's no need to read ahead past one.
+	 */
+	private void moveTo(long offset, long endOffset) throws Exception {
+		if(readAhead!=null) {
+			readAhead.position(offset, endOffset);
+		} else {
+			inStream.getChannel().position(offset);
+		}
+		bufferOffset = offset;
+		start = 0;
+		end = 0;
+		rangeEnd = endOffset;
+	}
+
 	private void readAndQueue() throws Exception {
-		String line = readBuffer.readLine();
-		while(line!=null && shouldContinue()) {
-			tryEnqueue(line);
-			line = readBuffer.readLine();
-			readBuffer.lines();
-			readCount++;
+		while(shouldContinue()) {
+			boolean more;
+			progressLock.lock();
+			try {
+				more = readSomeLines();
+			} finally {
+				progressLock.unlock();
+			}
+			if(!more) {
+				if(follow && following) {
+					waitForMore();
+				} else {
+					finishLastLine();
+					return;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Consume the complete lines in the buffer, or when there are none read
+	 * some more of the file. Returns false at the end of the file.
+	 */
+	private boolean readSomeLines() throws Exception {
+		if(lineStart() >= rangeEnd) { return false; }
+		int newLine = nextNewLine();
+		if(newLine < 0) {
+			return fill();
 		}
+		while(newLine >= 0 && shouldContinue() && lineStart() < rangeEnd) {
+			consumeLine(newLine, newLine + 1);
+			newLine = nextNewLine();
+		}
+		queueBatch();
+		return true;
 	}
 	
+	/**
+	 * The last line may not have a line ending.
+	 */
+	private void finishLastLine() throws InterruptedException {
+		progressLock.lock();
+		try {
+			if(end > start && shouldContinue() && lineStart() < rangeEnd) {
+				consumeLine(end, end);
+				queueBatch();
+			}
+		} finally {
+			progressLock.unlock();
+		}
+	}
+
+	private void waitForMore() {
+		try {
+			Thread.sleep(FOLLOW_INTERVAL);
+		} catch(InterruptedException ex) {
+			/** Being shut down, treat as the end of the file */
+			stopFollowing();
+		}
+	}
+
+	private long lineStart() {
+		return bufferOffset + start;
+	}
+
+	private int nextNewLine() {
+		for(int i = start; i < end; i++) {
+			if(buffer[i] == '\n') { return i; }
+		}
+		return -1;
+	}
+
+	private void consumeLine(int lineEnd, int nextStart) throws InterruptedException {
+		int length = lineEnd - start;
+		if(length > 0 && buffer[lineEnd - 1] == '\r') { length--; }
+		int status = parser.parse(buffer, start, start + length);
+		if(status == LineParser.OK || rejects.keep(status, fileName, lineStart(), buffer, start, start + length)) {
+			enqueue(parser.getValue(), lineStart());
+		}
+		start = nextStart;
+		readCount++;
+	}
+
+	/**
+	 * Make room and read some more of the file. Returns false at end of file.
+	 */
+	private boolean fill() throws Exception {
+		if(start > 0) {
+			System.arraycopy(buffer, start, buffer, 0, end - start);
+			end -= start;
+			bufferOffset += start;
+			start = 0;
+		}
+		if(end == buffer.length) {
+			/** Some very long line */
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		}
+		int read = readAhead!=null ? readAhead.read(buffer, end, buffer.length - end) 
+				: inStream.read(buffer, end, buffer.length - end);
+		if(read <= 0) { return false; }
+		end += read;
+		return true;
+	}
+
 	private boolean shouldContinue() {
+		if(stopped) { return false; }
 		if(readLimit<=0) { return true; }
 		return (readCount < readLimit);
 	}
-	
-	private void tryEnqueue(String value) {
-		try{
-			workQueue.put(Long.parseLong(value));
+
+	private void enqueue(long number, long lineStart) throws InterruptedException {
+		if(indexBuilder!=null) {
+			indexBuilder.add(lineStart, number);
 		}
-		catch(NumberFormatException ex) { 
-			System.err.println("Can't coax " + value + " to Long");
-		} 
-		catch(InterruptedException ex) {
-			System.err.println("Interrupted while putting " + value);
+		if(fileTop!=null) {
+			fileTop.insert(number);
 		}
-		catch(Exception ex) {
-			System.err.println(ex.getStackTrace());
+		if(workQueue==null) { return; }
+		batch[batched++] = number;
+		if(batched == BATCH_SIZE) {
+			queueBatch();
 		}
 	}
 	
+	/**
+	 * Being interrupted part way through leaves the rest of the batch unqueued, so this
+	 * reader can't carry on as though its file was read - run() records it as a failure.
+	 */
+	private void queueBatch() throws InterruptedException {
+		int count = batched;
+		batched = 0;
+		if(threshold!=null) {
+			count = BatchFilter.keepAtLeast(batch, count, threshold.get());
+		}
+		try {
+			for(int i = 0; i < count; i++) {
+				workQueue.put(batch[i]);
+				enqueued++;
+			}
+		}
+		catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw ex;
+		}
+	}
+
 	private void cleanUp() throws Exception {
-		readBuffer.close();
-		inStream.close();
+		if(readAhead!=null) {
+			readAhead.close();
+		} else {
+			inStream.close();
+		}
 	}
 
 	public boolean isFinished() {
 		return finished;
 	}
-	
+
+	/**
+	 * Why the reader stopped before the end, if it did.
+	 */
+	public Exception getFailure() {
+		return failure;
+	}
+
 	public long getRead() {
 		return readCount;
 	}
+	
+	/**
+	 * Only meaningful while paused.
+	 */
+	public long getOffset() {
+		return bufferOffset + start;
+	}
+	
+	/**
+	 * Only meaningful while paused.
+	 */
+	public long getEnqueued() {
+		return enqueued;
+	}
+	
+	/**
+	 * The top values of the whole file, or null unless keepTop() was asked for and
+	 * the file was read from start to end.
+	 */
+	public BoundedMinHeap getFileTop() {
+		if(!readWholeFile()) { return null; }
+		return fileTop;
+	}
+	
+	/**
+	 * The index built while reading, or null unless buildIndex() was asked for and
+	 * the file was read from start to end.
+	 */
+	public BlockIndex getIndex() {
+		if(indexBuilder==null || !readWholeFile()) { return null; }
+		return indexBuilder.build(new File(fileName));
+	}
+	
+	private boolean readWholeFile() {
+		return finished && !resumed && !ranged && !follow && readLimit <= 0 && plan==null;
+	}
+	
+	public int getBlocksRead() {
+		return blocksRead;
+	}
+	
+	public int getBlocksSkipped() {
+		return blocksSkipped;
+	}
+	
+	public String getFileName() {
+		return fileName;
+	}
 }
@@ -0,0 +1,214 @@
+package com.lynchdt.questions.topn;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A mergeable streaming quantile sketch for longs, following KLL (Karnin, Lang & Liberty -
+ * Optimal Quantile Approximation in Streams).
+ *
+ * Values go into level 0. Each level is a 'compactor' with a capacity. When a level fills
+ * up it is sorted and every other value (starting at a random odd/even offset) is promoted
+ * to the next level, where each value stands in for twice as many values as the level below.
+ * The rest are thrown away. Capacities shrink geometrically (by 2/3) going down from the top
+ * level, so the total memory is about 3k values regardless of how long the stream is.
+ *
+ * The rank error of a quantile is roughly 1.7/k with high probability, so k = 200 gives
+ * answers within about 1% of the requested rank - p99 lies somewhere between p98 and p100.
+ * That is good enough to tell what a dataset looks like without a second 200Gb scan.
+ *
+ * Merging just stacks the levels of two sketches and compacts again, which is how
+ * the TopNWorker sketches get folded together, just like their heaps.
+ */
+public class QuantileSketch {
+
+	public static final int DEFAULT_K = 200;
+
+	private static final int MIN_CAPACITY = 8;
+
+	private final int k;
+	private long[][] levels = new long[1][];
+	private int[] sizes = new int[1];
+	/**
+	 * Values seen, merges included.
+	 */
+	private long count = 0;
+	private final Random random;
+
+	public QuantileSketch() {
+		this(DEFAULT_K);
+	}
+
+	public QuantileSketch(int k) {
+		this(k, new Random());
+	}
+
+	protected QuantileSketch(int k, Random random) {
+		if(k < MIN_CAPACITY) {
+			throw new IllegalArgumentException("k should be at least " + MIN_CAPACITY);
+		}
+		this.k = k;
+		this.random = random;
+		levels[0] = new long[k];
+	}
+
+	public void update(long value) {
+		append(0, value);
+		count++;
+		if(sizes[0] >= capacity(0)) {
+			compress();
+		}
+	}
+
+	public void merge(QuantileSketch other) {
+		for(int level = 0; level < other.levels.length; level++) {
+			for(int i = 0; i < other.sizes[level]; i++) {
+				append(level, other.levels[level][i]);
+			}
+		}
+		count += other.count;
+		compress();
+	}
+
+	public void clear() {
+		levels = new long[1][];
+		levels[0] = new long[k];
+		sizes = new int[1];
+		count = 0;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * The value at the given fraction (0..1) of the way through the sorted stream.
+	 */
+	public long quantile(double fraction) {
+		if(count == 0) {
+			throw new RuntimeException("No values in sketch");
+		}
+		if(fraction < 0 || fraction > 1) {
+			throw new IllegalArgumentException("Quantile must be between 0 and 1");
+		}
+		int retained = 0;
+		for(int level = 0; level < levels.length; level++) {
+			retained += sizes[level];
+		}
+		/** Values paired with their weight, sorted on value */
+		long[] values = new long[retained];
+		long[] weights = new long[retained];
+		Integer[] order = new Integer[retained];
+		int next = 0;
+		long totalWeight = 0;
+		for(int level = 0; level < levels.length; level++) {
+			for(int i = 0; i < sizes[level]; i++) {
+				values[next] = levels[level][i];
+				weights[next] = 1L << level;
+				totalWeight += weights[next];
+				order[next] = next;
+				next++;
+			}
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(values[a], values[b]));
+		long wantedWeight = (long) Math.ceil(fraction * totalWeight);
+		long cumulative = 0;
+		for(int index : order) {
+			cumulative += weights[index];
+			if(cumulative >= wantedWeight) {
+				return values[index];
+			}
+		}
+		return values[order[retained - 1]];
+	}
+
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeInt(k);
+		out.writeLong(count);
+		out.writeInt(levels.length);
+		for(int level = 0; level < levels.length; level++) {
+			out.writeInt(sizes[level]);
+			for(int i = 0; i < sizes[level]; i++) {
+				out.writeLong(levels[level][i]);
+			}
+		}
+	}
+
+	public static QuantileSketch readFrom(DataInput in) throws IOException {
+		QuantileSketch sketch = new QuantileSketch(in.readInt());
+		sketch.count = in.readLong();
+		int levelCount = in.readInt();
+		for(int level = 0; level < levelCount; level++) {
+			int size = in.readInt();
+			for(int i = 0; i < size; i++) {
+				sketch.append(level, in.readLong());
+			}
+		}
+		return sketch;
+	}
+
+	private int capacity(int level) {
+		int depth = levels.length - level - 1;
+		return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(2.0 / 3.0, depth)));
+	}
+
+	private void append(int level, long value) {
+		if(level >= levels.length) {
+			int oldLength = levels.length;
+			levels = Arrays.copyOf(levels, level + 1);
+			sizes = Arrays.copyOf(sizes, level + 1);
+			for(int i = oldLength; i <= level; i++) {
+				levels[i] = new long[MIN_CAPACITY];
+			}
+		}
+		if(sizes[level] == levels[level].length) {
+			levels[level] = Arrays.copyOf(levels[level], levels[level].length * 2);
+		}
+		levels[level][sizes[level]++] = value;
+	}
+
+	/**
+	 * Compact every level that is over capacity, lowest first. Promoting may
+	 * push the level above over capacity, and adding a level shrinks the
+	 * capacities of those below, so keep going until everything fits.
+	 */
+	private void compress() {
+		boolean compacted = true;
+		while(compacted) {
+			compacted = false;
+			for(int level = 0; level < levels.length; level++) {
+				if(sizes[level] >= capacity(level)) {
+					compact(level);
+					compacted = true;
+					break;
+				}
+			}
+		}
+	}
+
+	private void compact(int level) {
+		long[] compactor = levels[level];
+		int size = sizes[level];
+		Arrays.sort(compactor, 0, size);
+		/** An odd value out (the smallest) stays behind at index 0 */
+		int leftOver = size % 2;
+		int offset = random.nextBoolean() ? 1 : 0;
+		for(int i = leftOver + offset; i < size; i += 2) {
+			append(level + 1, compactor[i]);
+		}
+		sizes[level] = leftOver;
+	}
+
+	@Override
+	public String toString() {
+		if(count == 0) { return "[]"; }
+		return "[p50=" + quantile(0.5) + ", p99=" + quantile(0.99) + ", p999=" + quantile(0.999) + "]";
+	}
+}
@@ -0,0 +1,155 @@
+package com.lynchdt.questions.topn;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Answers several top-N queries over overlapping sets of files with one scan, rather than
+ * a TopN run (and a read of every file) per query. A nightly batch asking for the top-1000
+ * overall, the top-10 of each file and the top-100 of a few groups reads each file once.
+ *
+ * Each file is read once by a NumberFileReader that keeps the file's own top-M, where M
+ * is the largest N of any query that covers the file. That is the only selector each value
+ * goes to - the top-N of a group of files is always among the top-N of each file in it, so
+ * a query's answer is just the merge of the top-Ms of its files. Which file a value came
+ * from doesn't need tagging on every value, the reader it went through says so.
+ *
+ * Nothing goes through a work queue, so there are no TopNWorkers - a reader selecting for
+ * its own file is the cheapest way to get the value to the right heap.
+ */
+public class QueryBatch {
+
+	private static class Query {
+		private final String name;
+		private final int N;
+		private final List<String> files;
+		private long[] result;
+
+		private Query(String name, int N, List<String> files) {
+			this.name = name;
+			this.N = N;
+			this.files = files;
+		}
+	}
+
+	private final List<Query> queries = new ArrayList<>();
+	/**
+	 * Every file any query needs, in the order first asked for, with the most of its
+	 * top values any query needs.
+	 */
+	private final Map<String, Integer> fileTops = new LinkedHashMap<>();
+	private final Map<String, NumberFileReader> readers = new LinkedHashMap<>();
+	private RejectPolicy rejects = RejectPolicy.skip();
+	private PrintStream out = System.out;
+
+	public void add(String name, int N, List<String> files) {
+		if(name==null || N <= 0 || files==null || files.isEmpty()) {
+			throw new IllegalArgumentException("Invalid query parameters");
+		}
+		queries.add(new Query(name, N, files));
+		files.forEach((file) -> {
+			fileTops.merge(file, N, Math::max);
+		});
+	}
+
+	public void handleBadLines(RejectPolicy rejects) {
+		this.rejects = rejects;
+	}
+
+	public void reportTo(PrintStream out) {
+		this.out = out;
+	}
+
+	public void execute() throws Exception {
+		if(queries.isEmpty()) {
+			throw new IllegalArgumentException("No queries to answer");
+		}
+		scan();
+		for(Query query : queries) {
+			BoundedMinHeap top = new BoundedMinHeap(query.N);
+			for(String file : query.files) {
+				readers.get(file).getFileTop().merge(top);
+			}
+			query.result = top.sortDescending();
+			try (ResultWriter writer = ResultWriter.toConsole(out, query.name + " Top-" + query.N)) {
+				writer.write(query.result);
+			}
+		}
+		if(rejects.summary()!=null) {
+			out.println("Bad lines -> " + rejects.summary());
+		}
+	}
+
+	/**
+	 * A reader per file, all at once like TopN.
+	 */
+	private void scan() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(fileTops.size());
+		CountDownLatch done = new CountDownLatch(fileTops.size());
+		try {
+			fileTops.forEach((file, M) -> {
+				NumberFileReader reader = new NumberFileReader(null, file);
+				reader.keepTop(M);
+				reader.handleBadLines(rejects);
+				reader.countDownWhenDone(done);
+				readers.put(file, reader);
+				executor.submit(reader);
+			});
+			done.await();
+		} finally {
+			executor.shutdownNow();
+			rejects.close();
+		}
+		for(NumberFileReader reader : readers.values()) {
+			if(reader.getFileTop()==null) {
+				throw new RuntimeException("Cannot report results - could not read " + reader.getFileName());
+			}
+		}
+	}
+
+	/**
+	 * Highest first, once executed.
+	 */
+	protected long[] getResult(String name) {
+		for(Query query : queries) {
+			if(query.name.equals(name)) { return query.result; }
+		}
+		return null;
+	}
+
+	/**
+	 * Files read, however many queries wanted them.
+	 */
+	public int fileCount() {
+		return fileTops.size();
+	}
+
+	public static void main(String argsv[]) throws Exception {
+		if(argsv.length<1) {
+			System.out.println("> java QueryBatch <name>=<n>:<file>[,<file>..] [<name>=<n>:<file>[,<file>..] ..]");
+			System.out.println("Each file is read once, however many queries ask about it.");
+			System.exit(-1);
+		}
+		QueryBatch batch = new QueryBatch();
+		for(String query : argsv) {
+			String[] nameAndRest = query.split("=", 2);
+			String[] nAndFiles = nameAndRest.length > 1 ? nameAndRest[1].split(":", 2) : new String[0];
+			if(nAndFiles.length < 2) {
+				throw new IllegalArgumentException("Can't make a query of " + query);
+			}
+			batch.add(nameAndRest[0], Integer.parseInt(nAndFiles[0]), Arrays.asList(nAndFiles[1].split(",")));
+		}
+		Timer timer = Timer.createAndStart();
+		batch.execute();
+		timer.stop();
+		System.out.println("Answered " + batch.queries.size() + " queries reading " + batch.fileCount()
+				+ " file(s) in " + timer.toString());
+	}
+}
@@ -0,0 +1,155 @@
+package com.lynchdt.questions.topn;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a file through several large blocks that are always being filled in the
+ * background, so the disk is busy while the parser works on what has already arrived.
+ * A plain read() makes the two take turns.
+ *
+ * There are depth blocks of blockSize bytes each. Reads are issued on an
+ * AsynchronousFileChannel at offsets that are multiples of blockSize (the first block
+ * starts at the aligned offset before the position and skips up to it). As soon as a
+ * block has been copied out it goes back out for the next block of the file. A handful
+ * of 4-16Mb blocks is enough to keep NVMe or RAID busy from one reader thread.
+ *
+ * A short read means the end of the file, for now. Anything in flight past it is
+ * dropped and the next read() starts again from there, which is what following a
+ * growing file needs.
+ */
+public class ReadAhead implements AutoCloseable {
+
+	public static final int DEFAULT_BLOCK_SIZE = 4 * 1024 * 1024;
+	public static final int DEFAULT_DEPTH = 4;
+
+	private static class Block {
+		private final ByteBuffer buffer;
+		private long position;
+		private int requested;
+		private Future<Integer> read;
+
+		private Block(int size) {
+			buffer = ByteBuffer.allocateDirect(size);
+		}
+	}
+
+	private final AsynchronousFileChannel channel;
+	private final int blockSize;
+	private final ArrayDeque<Block> free = new ArrayDeque<>();
+	private final ArrayDeque<Block> inFlight = new ArrayDeque<>();
+	private Block current;
+	/**
+	 * Where the next block to be asked for starts, and where reading must stop.
+	 */
+	private long nextPosition = 0;
+	private long limit = Long.MAX_VALUE;
+	/**
+	 * Bytes at the start of the next block that come before the position asked for.
+	 */
+	private int skip = 0;
+
+	public ReadAhead(String fileName, int blockSize, int depth) throws Exception {
+		if(blockSize <= 0 || depth <= 0) {
+			throw new IllegalArgumentException("Invalid read ahead parameters");
+		}
+		this.channel = AsynchronousFileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+		this.blockSize = blockSize;
+		for(int i = 0; i < depth; i++) {
+			free.add(new Block(blockSize));
+		}
+	}
+
+	/**
+	 * Carry on from the position, stopping at the limit.
+	 */
+	public void position(long position, long limit) throws Exception {
+		dropInFlight();
+		recycleCurrent();
+		this.nextPosition = position - position % blockSize;
+		this.skip = (int) (position - nextPosition);
+		this.limit = limit;
+	}
+
+	/**
+	 * Like InputStream.read() - some bytes, or -1 at the end of the file (or limit).
+	 */
+	public int read(byte[] destination, int offset, int length) throws Exception {
+		if(current==null || !current.buffer.hasRemaining()) {
+			if(!nextBlock()) { return -1; }
+		}
+		int copied = Math.min(length, current.buffer.remaining());
+		current.buffer.get(destination, offset, copied);
+		return copied;
+	}
+
+	private boolean nextBlock() throws Exception {
+		recycleCurrent();
+		while(!free.isEmpty() && nextPosition < limit) {
+			Block block = free.poll();
+			block.position = nextPosition;
+			block.requested = (int) Math.min(blockSize, limit - nextPosition);
+			block.buffer.clear();
+			block.buffer.limit(block.requested);
+			block.read = channel.read(block.buffer, block.position);
+			inFlight.add(block);
+			nextPosition += blockSize;
+		}
+		Block block = inFlight.poll();
+		if(block==null) { return false; }
+		int read = Math.max(0, block.read.get());
+		block.buffer.flip();
+		if(read < block.requested) {
+			/** End of the file for now. Whatever was asked for after it is no use */
+			dropInFlight();
+			nextPosition = block.position + read;
+		}
+		block.buffer.position(Math.min(skip, read));
+		skip = Math.max(0, skip - read);
+		current = block;
+		if(!current.buffer.hasRemaining()) {
+			recycleCurrent();
+			return false;
+		}
+		return true;
+	}
+
+	private void recycleCurrent() {
+		if(current!=null) {
+			free.add(current);
+			current = null;
+		}
+	}
+
+	/**
+	 * Their buffers can't be reused until the reads into them are done.
+	 */
+	private void dropInFlight() throws InterruptedException, ExecutionException {
+		while(!inFlight.isEmpty()) {
+			Block block = inFlight.poll();
+			block.read.get();
+			free.add(block);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			dropInFlight();
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for reads ahead to finish");
+		} catch(ExecutionException ex) {
+			throw new IOException("Read ahead failed", ex.getCause());
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package com.lynchdt.questions.topn;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * What to do with lines that aren't a plain long, shared by every reader of a scan.
+ *
+ *  - skip   - drop them (the default)
+ *  - clamp  - keep what can be repaired. Spaces around a number are trimmed and values
+ *             too big for a long become Long.MAX_VALUE (or MIN_VALUE). The rest are dropped.
+ *  - fail   - drop them, but give up on the scan once there are more than K
+ *
+ * Either way bad lines are counted by kind, and dropped ones can be written to a reject
+ * file with the file and byte offset of each, so they can be found and fixed. Nothing is
+ * printed per line - on a dirty feed that alone slowed the scan right down.
+ */
+public class RejectPolicy {
+
+	private static final int SKIP = 0;
+	private static final int CLAMP = 1;
+	private static final int FAIL = 2;
+	private static final String[] NAMES = {"skip", "clamp", "fail"};
+	/**
+	 * No point writing out the whole of some enormous line.
+	 */
+	private static final int LONGEST_LOGGED = 256;
+
+	private final int mode;
+	private final long maxRejects;
+	private final AtomicLongArray counts = new AtomicLongArray(LineParser.KINDS.length);
+	private final AtomicLong rejected = new AtomicLong();
+	private Writer rejectFile;
+
+	private RejectPolicy(int mode, long maxRejects) {
+		this.mode = mode;
+		this.maxRejects = maxRejects;
+	}
+
+	public static RejectPolicy skip() {
+		return new RejectPolicy(SKIP, Long.MAX_VALUE);
+	}
+
+	public static RejectPolicy clamp() {
+		return new RejectPolicy(CLAMP, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Tolerates maxRejects bad lines, failing the reader that finds one more.
+	 */
+	public static RejectPolicy failAfter(long maxRejects) {
+		if(maxRejects < 0) {
+			throw new IllegalArgumentException("Invalid most bad lines");
+		}
+		return new RejectPolicy(FAIL, maxRejects);
+	}
+
+	/**
+	 * skip, clamp or fail, as given on the command line.
+	 */
+	public static RejectPolicy named(String name, long maxRejects) {
+		switch(name) {
+			case "skip": return skip();
+			case "clamp": return clamp();
+			case "fail": return failAfter(maxRejects);
+			default: throw new IllegalArgumentException("Unknown bad line policy " + name);
+		}
+	}
+
+	/**
+	 * skip, clamp or fail, as named().
+	 */
+	public String getName() {
+		return NAMES[mode];
+	}
+
+	/**
+	 * Whether some lines a plain parse rejects are kept, so a file gives different values
+	 * than it would under skip or fail.
+	 */
+	public boolean repairs() {
+		return mode == CLAMP;
+	}
+
+	/**
+	 * The same decisions for reading lines this has already seen again - nothing
+	 * counted, written or failed twice.
+	 */
+	protected RejectPolicy quietly() {
+		return new RejectPolicy(mode, Long.MAX_VALUE);
+	}
+
+	/**
+	 * One line per dropped line - file:offset: kind: line
+	 */
+	public void writeRejectsTo(String path) throws Exception {
+		this.rejectFile = new BufferedWriter(new FileWriter(path));
+	}
+
+	/**
+	 * Counts a line the parser didn't like, and says whether its value should be kept.
+	 */
+	public boolean keep(int status, String fileName, long offset, byte[] line, int from, int to) {
+		counts.incrementAndGet(status);
+		if(mode == CLAMP && (status == LineParser.WHITESPACE || status == LineParser.OVERFLOW)) {
+			return true;
+		}
+		long total = rejected.incrementAndGet();
+		if(rejectFile!=null) {
+			log(fileName, offset, status, new String(line, from, Math.min(to - from, LONGEST_LOGGED), StandardCharsets.US_ASCII));
+		}
+		if(total > maxRejects) {
+			throw new RuntimeException("Giving up after " + total + " bad lines, the last "
+					+ LineParser.KINDS[status] + " at " + fileName + ":" + offset);
+		}
+		return false;
+	}
+
+	private synchronized void log(String fileName, long offset, int status, String line) {
+		if(rejectFile==null) { return; }
+		try {
+			rejectFile.write(fileName + ":" + offset + ": " + LineParser.KINDS[status] + ": " + line + "\n");
+		} catch(IOException ex) {
+			System.err.println("Could not write reject " + ex);
+		}
+	}
+
+	public long getCount(int status) {
+		return counts.get(status);
+	}
+
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * "3 blank, 1 overflow (3 dropped)", or null when every line was good.
+	 */
+	public String summary() {
+		StringBuilder summary = new StringBuilder();
+		for(int status = LineParser.BLANK; status < LineParser.KINDS.length; status++) {
+			long count = counts.get(status);
+			if(count == 0) { continue; }
+			if(summary.length() > 0) {
+				summary.append(", ");
+			}
+			summary.append(count).append(' ').append(LineParser.KINDS[status]);
+		}
+		if(summary.length() == 0) { return null; }
+		return summary.append(" (").append(rejected.get()).append(" dropped)").toString();
+	}
+
+	public synchronized void close() throws IOException {
+		if(rejectFile!=null) {
+			rejectFile.close();
+			rejectFile = null;
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package com.lynchdt.questions.topn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A worker process for a Coordinator. Connects, then scans whatever chunks it is
+ * given until told it's done, sending back the top-N of each.
+ *
+ * A chunk is scanned just like a file in TopN - a NumberFileReader restricted to the
+ * chunk's range queueing values for workerCount TopNWorkers - and the workers' heaps
+ * merged. Anything below the threshold the coordinator sends with the chunk is dropped.
+ */
+public class RemoteWorker {
+
+	private final String host;
+	private final int port;
+	private final int workerCount;
+	private final int queueSize;
+	private int chunksScanned = 0;
+
+	public RemoteWorker(String host, int port, int workerCount, int queueSize) {
+		if(host==null || workerCount <= 0 || queueSize <= 0) {
+			throw new IllegalArgumentException("Invalid remote worker parameters");
+		}
+		this.host = host;
+		this.port = port;
+		this.workerCount = workerCount;
+		this.queueSize = queueSize;
+	}
+
+	public void execute() throws Exception {
+		try (Socket socket = new Socket(host, port)) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			if(!Coordinator.MAGIC.equals(in.readUTF())) {
+				throw new RuntimeException(host + ":" + port + " is not a coordinator");
+			}
+			int N = in.readInt();
+			while(nextMessage(in) == Coordinator.CHUNK) {
+				int id = in.readInt();
+				String fileName = in.readUTF();
+				long start = in.readLong();
+				long end = in.readLong();
+				long threshold = in.readLong();
+				List<Long> top = scan(N, fileName, start, end, threshold).getHeap();
+				out.writeInt(id);
+				out.writeInt(top.size());
+				for(long value : top) {
+					out.writeLong(value);
+				}
+				out.flush();
+				chunksScanned++;
+			}
+		}
+	}
+
+	/**
+	 * The coordinator closes every connection once the last chunk is in, which can
+	 * beat it telling an idle worker it's done.
+	 */
+	private int nextMessage(DataInputStream in) throws Exception {
+		try {
+			return in.readInt();
+		} catch(EOFException ex) {
+			return Coordinator.DONE;
+		}
+	}
+
+	protected BoundedMinHeap scan(int N, String fileName, long start, long end, long thresholdValue) throws Exception {
+		BlockingQueue<Long> workQueue = new ArrayBlockingQueue<Long>(queueSize, false);
+		SharedThreshold threshold = new SharedThreshold();
+		threshold.raiseTo(thresholdValue);
+		NumberFileReader reader = new NumberFileReader(workQueue, fileName);
+		reader.readRange(start, end);
+		reader.filterBelow(threshold);
+		ExecutorService executor = Executors.newFixedThreadPool(workerCount + 1);
+		List<TopNWorker> workers = new ArrayList<>();
+		CountDownLatch workersDone = new CountDownLatch(workerCount);
+		try {
+			for(int i = 0; i < workerCount; i++) {
+				TopNWorker worker = new TopNWorker(N, workQueue);
+				worker.publishThresholdTo(threshold);
+				worker.countDownWhenDone(workersDone);
+				workers.add(worker);
+				executor.submit(worker);
+			}
+			executor.submit(reader).get();
+			if(!reader.isFinished()) {
+				throw new RuntimeException("Could not read " + fileName);
+			}
+			workers.forEach((worker) -> {
+				worker.endOfStream();
+			});
+			workersDone.await();
+			BoundedMinHeap top = new BoundedMinHeap(N);
+			workers.forEach((worker) -> {
+				worker.applyToHeap(top);
+			});
+			return top;
+		} finally {
+			workers.forEach((worker) -> {
+				worker.finish();
+			});
+			executor.shutdownNow();
+		}
+	}
+
+	public int getChunksScanned() {
+		return chunksScanned;
+	}
+
+	public static void main(String argsv[]) throws Exception {
+		if(argsv.length<4) {
+			System.out.println("> java RemoteWorker <coordinatorHost> <port> <workerCount> <queueSize>");
+			System.exit(-1);
+		}
+		RemoteWorker worker = new RemoteWorker(argsv[0], Integer.parseInt(argsv[1]),
+				Integer.parseInt(argsv[2]), Integer.parseInt(argsv[3]));
+		Timer timer = Timer.createAndStart();
+		worker.execute();
+		timer.stop();
+		System.out.println("Scanned " + worker.getChunksScanned() + " chunk(s) in " + timer.toString());
+	}
+}
@@ -0,0 +1,145 @@
+package com.lynchdt.questions.topn;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes the final top-N a buffer at a time, rather than building one String of the lot.
+ * For N in the millions that String (and the List<Long> behind it) is bigger than
+ * everything else the scan needed.
+ *
+ * Three kinds of output -
+ *  - the console, as "Top-N -> [a, b, c]" like it always was
+ *  - a text file, one value per line
+ *  - a binary file, an int count followed by that many longs (the same as TopNServer's binary format)
+ *
+ * Digits are written straight into the buffer, so there is no String per value either.
+ */
+public class ResultWriter implements AutoCloseable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	/**
+	 * Long.MIN_VALUE is 20 characters with its sign.
+	 */
+	private static final int LONGEST_VALUE = 20;
+
+	private final WritableByteChannel channel;
+	private final boolean binary;
+	private final byte[] separator;
+	private final byte[] end;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private final byte[] digits = new byte[LONGEST_VALUE];
+	private String prefix = "";
+	private OutputStream console;
+
+	private ResultWriter(WritableByteChannel channel, boolean binary, String separator, String end) throws Exception {
+		this.channel = channel;
+		this.binary = binary;
+		this.separator = separator.getBytes("US-ASCII");
+		this.end = end.getBytes("US-ASCII");
+	}
+
+	/**
+	 * "Top-N -> [a, b, c]". The stream is flushed but left open.
+	 */
+	public static ResultWriter toConsole(OutputStream out, int N) throws Exception {
+		return toConsole(out, "Top-" + N);
+	}
+
+	/**
+	 * "label -> [a, b, c]"
+	 */
+	public static ResultWriter toConsole(OutputStream out, String label) throws Exception {
+		ResultWriter writer = new ResultWriter(Channels.newChannel(out), false, ", ", "]" + System.lineSeparator());
+		writer.prefix = label + " -> [";
+		writer.console = out;
+		return writer;
+	}
+
+	public static ResultWriter toTextFile(String path) throws Exception {
+		return new ResultWriter(new FileOutputStream(path).getChannel(), false, "\n", "\n");
+	}
+
+	public static ResultWriter toBinaryFile(String path) throws Exception {
+		return new ResultWriter(new FileOutputStream(path).getChannel(), true, "", "");
+	}
+
+	/**
+	 * The values as given, which for a result is highest first.
+	 */
+	public void write(long[] values) throws Exception {
+		if(binary) {
+			buffer.putInt(values.length);
+			for(long value : values) {
+				room(Long.BYTES);
+				buffer.putLong(value);
+			}
+		} else {
+			put(prefix.getBytes("US-ASCII"));
+			for(int i = 0; i < values.length; i++) {
+				if(i > 0) {
+					put(separator);
+				}
+				putDigits(values[i]);
+			}
+			if(values.length > 0 || !prefix.isEmpty()) {
+				put(end);
+			}
+		}
+		flush();
+	}
+
+	private void putDigits(long value) throws Exception {
+		room(LONGEST_VALUE);
+		if(value == Long.MIN_VALUE) {
+			buffer.put(Long.toString(value).getBytes("US-ASCII"));
+			return;
+		}
+		if(value < 0) {
+			buffer.put((byte) '-');
+			value = -value;
+		}
+		int start = digits.length;
+		do {
+			digits[--start] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while(value > 0);
+		buffer.put(digits, start, digits.length - start);
+	}
+
+	private void put(byte[] bytes) throws Exception {
+		room(bytes.length);
+		buffer.put(bytes);
+	}
+
+	private void room(int bytes) throws Exception {
+		if(buffer.remaining() < bytes) {
+			flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Closes files. The console is left open.
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+		if(console!=null) {
+			console.flush();
+		} else {
+			channel.close();
+		}
+	}
+}
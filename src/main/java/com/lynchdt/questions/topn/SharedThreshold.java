@@ -0,0 +1,41 @@
+package com.lynchdt.questions.topn;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lower bound on the N-th largest value of the whole input, shared between the
+ * workers that discover it and the readers that use it to throw work away early.
+ *
+ * Anything that knows of N values at or above some value may raise it to that value - a
+ * full worker heap's minimum, say. Whatever ends up in the final top-N is at or above it,
+ * so a value below it can be dropped straight away and a block whose maximum is below it
+ * need not be read at all. Only ever goes up, so a stale read is merely less useful, never wrong.
+ */
+public class SharedThreshold {
+
+	private final AtomicLong threshold = new AtomicLong(Long.MIN_VALUE);
+
+	public long get() {
+		return threshold.get();
+	}
+
+	/**
+	 * Values strictly below the threshold can't make the top-N. Equal values are kept,
+	 * since duplicates are part of the result.
+	 */
+	public boolean excludes(long value) {
+		return value < threshold.get();
+	}
+
+	public void raiseTo(long value) {
+		long current = threshold.get();
+		while(value > current && !threshold.compareAndSet(current, value)) {
+			current = threshold.get();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(get());
+	}
+}
@@ -0,0 +1,237 @@
+package com.lynchdt.questions.topn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Top-N over a sliding window of the most recent values, either the last so many
+ * lines or the values from the last so many milliseconds.
+ *
+ * A BoundedMinHeap can't do this. It throws away everything below its minimum, and
+ * once a value in it expires, one of those thrown away values might be back in the
+ * top-N. Nor can it delete an arbitrary expired value. So here every value in the window
+ * is kept, in arrival order in a ring (so the oldest can expire in O(1)) and as a counted
+ * multiset in a TreeMap (so expiring and inserting are O(log W) and the top-N is an
+ * in-order walk from the largest key). Space is O(W) for a window of W values.
+ *
+ * Thread safe - all the workers feed the one window. Arrival order across workers is
+ * only as fuzzy as the work queue itself. That has a cost: every value from every worker
+ * takes the window's one monitor and is boxed into the TreeMap, so following a file is
+ * limited to what one thread can insert however many workers there are. That's fine for
+ * following a file being appended to, less so for a window of a big scan.
+ *
+ * The version only moves when the top-N itself changes, not on every value, so whoever
+ * waits on it isn't woken for values that didn't make it. Telling costs nothing extra - 
+ * the N-th largest value is kept track of as values come and go.
+ */
+public class SlidingWindowTopN {
+
+	private final int N;
+	/**
+	 * At most one of these is set.
+	 */
+	private final long windowLines;
+	private final long windowMillis;
+
+	private final TreeMap<Long, Integer> window = new TreeMap<>();
+
+	/**
+	 * Ring of values (and their arrival times for time windows), oldest at head.
+	 */
+	private long[] values = new long[1024];
+	private long[] arrivals = new long[1024];
+	private int head = 0;
+	private int size = 0;
+
+	/**
+	 * The N-th largest value once there are N values in the window, and how many values 
+	 * are at or above it - at least N, but fewer than N above it.
+	 */
+	private Long cutoff = null;
+	private long atOrAbove = 0;
+
+	/**
+	 * Bumped whenever the top-N changes so readers of the window can tell when to report.
+	 */
+	private long version = 0;
+
+	private SlidingWindowTopN(int N, long windowLines, long windowMillis) {
+		if(N <= 0 || (windowLines <= 0 && windowMillis <= 0)) {
+			throw new IllegalArgumentException("Invalid window parameters");
+		}
+		this.N = N;
+		this.windowLines = windowLines;
+		this.windowMillis = windowMillis;
+	}
+
+	public static SlidingWindowTopN overLines(int N, long lines) {
+		return new SlidingWindowTopN(N, lines, 0);
+	}
+
+	public static SlidingWindowTopN overMillis(int N, long millis) {
+		return new SlidingWindowTopN(N, 0, millis);
+	}
+
+	public void insert(long value) {
+		insert(value, System.currentTimeMillis());
+	}
+
+	protected synchronized void insert(long value, long now) {
+		boolean changed = false;
+		if(windowLines > 0 && size == windowLines) {
+			changed = expireOldest();
+		}
+		if(size == values.length) {
+			grow();
+		}
+		int tail = (head + size) % values.length;
+		values[tail] = value;
+		arrivals[tail] = now;
+		size++;
+		changed |= add(value);
+		if(changed) {
+			changed();
+		}
+		expire(now);
+	}
+
+	/**
+	 * Drop whatever has slid out of a time window. Values only expire on their own
+	 * with time, so this wants calling periodically even when nothing new arrives.
+	 */
+	public void expire() {
+		expire(System.currentTimeMillis());
+	}
+
+	protected synchronized void expire(long now) {
+		if(windowMillis <= 0) { return; }
+		boolean changed = false;
+		while(size > 0 && arrivals[head] <= now - windowMillis) {
+			changed |= expireOldest();
+		}
+		if(changed) {
+			changed();
+		}
+	}
+
+	/**
+	 * Returns whether the top-N changed.
+	 */
+	private boolean expireOldest() {
+		long oldest = values[head];
+		head = (head + 1) % values.length;
+		size--;
+		return remove(oldest);
+	}
+
+	/**
+	 * Counts in a value that is already in the ring, returning whether that changed the
+	 * top-N - it did unless the value is at or below the cutoff.
+	 */
+	private boolean add(long value) {
+		window.merge(value, 1, Integer::sum);
+		if(cutoff == null) {
+			if(size == N) {
+				cutoff = window.firstKey();
+				atOrAbove = N;
+			}
+			return true;
+		}
+		if(value < cutoff) { return false; }
+		atOrAbove++;
+		if(value == cutoff) { return false; }
+		if(atOrAbove - window.get(cutoff) == N) {
+			/** N above the cutoff now, so the next value up is the N-th largest */
+			atOrAbove -= window.get(cutoff);
+			cutoff = window.higherKey(cutoff);
+		}
+		return true;
+	}
+
+	/**
+	 * Counts out a value that has left the ring, returning whether that changed the top-N.
+	 * Below the cutoff it didn't, and at the cutoff only if there was no spare copy of the
+	 * cutoff to take its place.
+	 */
+	private boolean remove(long value) {
+		Integer count = window.get(value);
+		if(count == 1) {
+			window.remove(value);
+		} else {
+			window.put(value, count - 1);
+		}
+		if(cutoff == null) { return true; }
+		if(size < N) {
+			cutoff = null;
+			return true;
+		}
+		if(value < cutoff) { return false; }
+		boolean changed = value > cutoff || atOrAbove == N;
+		atOrAbove--;
+		if(atOrAbove < N) {
+			cutoff = window.lowerKey(cutoff);
+			atOrAbove += window.get(cutoff);
+		}
+		return changed;
+	}
+
+	private void grow() {
+		long[] newValues = new long[values.length * 2];
+		long[] newArrivals = new long[values.length * 2];
+		for(int i = 0; i < size; i++) {
+			newValues[i] = values[(head + i) % values.length];
+			newArrivals[i] = arrivals[(head + i) % values.length];
+		}
+		values = newValues;
+		arrivals = newArrivals;
+		head = 0;
+	}
+
+	private void changed() {
+		version++;
+		notifyAll();
+	}
+
+	/**
+	 * Block until the window has changed since the given version, or the timeout passes.
+	 * Returns the current version.
+	 */
+	public synchronized long awaitChange(long sinceVersion, long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		long remaining = timeoutMillis;
+		while(version == sinceVersion && remaining > 0) {
+			wait(remaining);
+			remaining = deadline - System.currentTimeMillis();
+		}
+		return version;
+	}
+
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	public synchronized int getSize() {
+		return size;
+	}
+
+	/**
+	 * The top-N of the window, highest first.
+	 */
+	public synchronized List<Long> getTop() {
+		List<Long> top = new ArrayList<>(N);
+		for(Map.Entry<Long, Integer> entry : window.descendingMap().entrySet()) {
+			for(int i = 0; i < entry.getValue() && top.size() < N; i++) {
+				top.add(entry.getKey());
+			}
+			if(top.size() == N) { break; }
+		}
+		return top;
+	}
+
+	@Override
+	public String toString() {
+		return getTop().toString();
+	}
+}
@@ -0,0 +1,262 @@
+package com.lynchdt.questions.topn;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Approximate top-K most frequent values using the Space-Saving algorithm
+ * (Metwally, Agrawal & El Abbadi - Efficient Computation of Frequent and Top-k Elements
+ * in Data Streams).
+ *
+ * Exact counting needs a counter for every distinct value, which is hopeless for
+ * billions of random longs. Space-Saving keeps exactly K counters. A value that is
+ * already monitored just has its counter bumped. A new value takes over the counter
+ * with the smallest count, inheriting that count as its possible over-estimation (error).
+ *
+ * The guarantees, for a stream of n values and K counters, are
+ * - every count is an over-estimate, by at most the recorded error, which is at most n/K
+ * - any value that truly occurs more than n/K times is monitored
+ * - (count - error) is a safe lower bound on the true frequency
+ *
+ * Counters are kept in a min-heap on count (same idea as BoundedMinHeap) so that finding
+ * the counter to take over is O(1) and an increment is an O(log K) sift. A HashMap finds
+ * the counter for a monitored value. Memory is O(K) no matter how long the stream is.
+ *
+ * Summaries are mergeable (Agarwal et al. - Mergeable Summaries) which is what lets
+ * each TopNWorker keep its own and have them periodically folded into one overall summary.
+ * The error bound of a merged summary is (n1 + n2)/K.
+ */
+public class SpaceSavingSummary {
+
+	protected static class Counter {
+		private long value;
+		private long count;
+		private long error;
+		private int index;
+
+		private Counter(long value, long count, long error) {
+			this.value = value;
+			this.count = count;
+			this.error = error;
+		}
+
+		public long getValue() {
+			return value;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getError() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			return value + " x " + count + " (+/-" + error + ")";
+		}
+	}
+
+	private final int capacity;
+	private final HashMap<Long, Counter> counters;
+	/**
+	 * Min-heap of counters ordered on count.
+	 */
+	private final Counter[] heap;
+	private int size = 0;
+	/**
+	 * Length of the stream summarized so far (n).
+	 */
+	private long total = 0;
+
+	public SpaceSavingSummary(int capacity) {
+		if(capacity <= 0) {
+			throw new IllegalArgumentException("Need at least one counter");
+		}
+		this.capacity = capacity;
+		this.counters = new HashMap<>(capacity * 2);
+		this.heap = new Counter[capacity];
+	}
+
+	public void offer(long value) {
+		offer(value, 1, 0);
+	}
+
+	protected void offer(long value, long count, long error) {
+		total += count;
+		Counter counter = counters.get(value);
+		if(counter != null) {
+			counter.count += count;
+			counter.error += error;
+			siftDown(counter.index);
+		} else if(size < capacity) {
+			counter = new Counter(value, count, error);
+			counter.index = size;
+			heap[size++] = counter;
+			counters.put(value, counter);
+			siftUp(counter.index);
+		} else {
+			/** Take over the least frequent counter */
+			counter = heap[0];
+			counters.remove(counter.value);
+			counter.value = value;
+			counter.error = counter.count + error;
+			counter.count += count;
+			counters.put(value, counter);
+			siftDown(0);
+		}
+	}
+
+	/**
+	 * The count any unmonitored value could have at most.
+	 */
+	public long minCount() {
+		return size < capacity ? 0 : heap[0].count;
+	}
+
+	public long getTotal() {
+		return total;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	protected int getSize() {
+		return size;
+	}
+
+	/**
+	 * Upper bound on the over-estimation of any count in this summary.
+	 */
+	public long maxError() {
+		return total / capacity;
+	}
+
+	/**
+	 * Fold another summary into this one. A value missing from one side may have
+	 * occurred there up to that side's minimum count, so that is added to both its
+	 * count and its error, keeping every count an over-estimate. The K largest
+	 * counts survive.
+	 */
+	public void merge(SpaceSavingSummary other) {
+		long thisMin = minCount();
+		long otherMin = other.minCount();
+		HashMap<Long, Counter> combined = new HashMap<>((size + other.size) * 2);
+		for(int i = 0; i < size; i++) {
+			Counter mine = heap[i];
+			Counter theirs = other.counters.get(mine.value);
+			if(theirs != null) {
+				combined.put(mine.value, new Counter(mine.value, mine.count + theirs.count, mine.error + theirs.error));
+			} else {
+				combined.put(mine.value, new Counter(mine.value, mine.count + otherMin, mine.error + otherMin));
+			}
+		}
+		for(int i = 0; i < other.size; i++) {
+			Counter theirs = other.heap[i];
+			if(!combined.containsKey(theirs.value)) {
+				combined.put(theirs.value, new Counter(theirs.value, theirs.count + thisMin, theirs.error + thisMin));
+			}
+		}
+		List<Counter> survivors = new ArrayList<>(combined.values());
+		Collections.sort(survivors, (a, b) -> Long.compare(b.count, a.count));
+
+		long mergedTotal = total + other.total;
+		clear();
+		for(int i = 0; i < survivors.size() && i < capacity; i++) {
+			Counter counter = survivors.get(i);
+			counter.index = size;
+			heap[size++] = counter;
+			counters.put(counter.value, counter);
+		}
+		for(int i = size / 2; i >= 0; i--) {
+			siftDown(i);
+		}
+		total = mergedTotal;
+	}
+
+	public void clear() {
+		counters.clear();
+		for(int i = 0; i < size; i++) {
+			heap[i] = null;
+		}
+		size = 0;
+		total = 0;
+	}
+
+	/**
+	 * The k most frequent values, most frequent first.
+	 */
+	public List<Counter> getMostFrequent(int k) {
+		List<Counter> sorted = new ArrayList<>(size);
+		for(int i = 0; i < size; i++) {
+			sorted.add(heap[i]);
+		}
+		Collections.sort(sorted, (a, b) -> Long.compare(b.count, a.count));
+		return sorted.subList(0, Math.min(k, sorted.size()));
+	}
+
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeInt(capacity);
+		out.writeLong(total);
+		out.writeInt(size);
+		for(int i = 0; i < size; i++) {
+			out.writeLong(heap[i].value);
+			out.writeLong(heap[i].count);
+			out.writeLong(heap[i].error);
+		}
+	}
+
+	public static SpaceSavingSummary readFrom(DataInput in) throws IOException {
+		SpaceSavingSummary summary = new SpaceSavingSummary(in.readInt());
+		long total = in.readLong();
+		int size = in.readInt();
+		for(int i = 0; i < size; i++) {
+			/** Distinct values into free counters, so each comes back exactly as written */
+			summary.offer(in.readLong(), in.readLong(), in.readLong());
+		}
+		summary.total = total;
+		return summary;
+	}
+
+	private void siftUp(int index) {
+		while(index > 0) {
+			int parent = (index - 1) / 2;
+			if(heap[parent].count <= heap[index].count) { break; }
+			exchange(index, parent);
+			index = parent;
+		}
+	}
+
+	private void siftDown(int index) {
+		while(true) {
+			int left = (2 * index) + 1;
+			int right = left + 1;
+			int smallest = index;
+			if(left < size && heap[left].count < heap[smallest].count) { smallest = left; }
+			if(right < size && heap[right].count < heap[smallest].count) { smallest = right; }
+			if(smallest == index) { return; }
+			exchange(index, smallest);
+			index = smallest;
+		}
+	}
+
+	private void exchange(int first, int second) {
+		Counter temp = heap[first];
+		heap[first] = heap[second];
+		heap[second] = temp;
+		heap[first].index = first;
+		heap[second].index = second;
+	}
+
+	@Override
+	public String toString() {
+		return getMostFrequent(size).toString();
+	}
+}
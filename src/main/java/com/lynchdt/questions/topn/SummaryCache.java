@@ -0,0 +1,206 @@
+package com.lynchdt.questions.topn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A sidecar cache of the top-M values of files that have already been scanned in full.
+ *
+ * The same immutable files tend to get asked about again and again with a different N.
+ * Any N <= M can be answered from the top-M of each file without reading it, since the
+ * top-N of the lot is in the union of each file's top-N. Files that have changed (or are
+ * new) are read as usual and their top-M cached for next time.
+ *
+ * Entries are keyed by canonical path and only trusted if size, modification time and a
+ * fingerprint (CRC32 of the first and last 64Kb plus the size) still match. The fingerprint
+ * catches an in-place rewrite that happens to keep the same size and mtime.
+ *
+ * The cache is bounded by the total number of values it holds. It is kept in access order
+ * so the least recently used entries are evicted first when it grows past that.
+ *
+ * Safe to share between queries running at the same time, as a TopNServer does.
+ */
+public class SummaryCache {
+
+	private static final String MAGIC = "TOPN-SUMMARY-CACHE";
+	private static final int VERSION = 1;
+	private static final int FINGERPRINT_BYTES = 64 * 1024;
+
+	protected static class Entry {
+		private final long size;
+		private final long modified;
+		private final long fingerprint;
+		/**
+		 * True if this is every value in the file, i.e. the file had fewer than M lines.
+		 */
+		private final boolean complete;
+		private final long[] top;
+
+		private Entry(long size, long modified, long fingerprint, boolean complete, long[] top) {
+			this.size = size;
+			this.modified = modified;
+			this.fingerprint = fingerprint;
+			this.complete = complete;
+			this.top = top;
+		}
+	}
+
+	private final String path;
+	private final long maxValues;
+	private long values = 0;
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private SummaryCache(String path, long maxValues) {
+		this.path = path;
+		this.maxValues = maxValues;
+	}
+
+	/**
+	 * Opens the cache at the path, or starts an empty one if there is none there yet.
+	 */
+	public static SummaryCache open(String path, long maxValues) throws Exception {
+		if(maxValues <= 0) {
+			throw new IllegalArgumentException("Cache needs room for some values");
+		}
+		SummaryCache cache = new SummaryCache(path, maxValues);
+		File file = new File(path);
+		if(file.exists()) {
+			cache.read(file);
+		}
+		return cache;
+	}
+
+	/**
+	 * The cached top values of the file if they are still valid and enough to answer
+	 * a top-N, otherwise null.
+	 */
+	public synchronized long[] lookup(String fileName, int N) throws Exception {
+		File file = new File(fileName);
+		String key = file.getCanonicalPath();
+		Entry entry = entries.get(key);
+		if(entry == null) { return null; }
+		if(entry.top.length < N && !entry.complete) { return null; }
+		if(entry.size != file.length() || entry.modified != file.lastModified()
+				|| entry.fingerprint != fingerprint(file)) {
+			remove(key);
+			return null;
+		}
+		return entry.top;
+	}
+
+	/**
+	 * Cache the top values of a file that has just been read from start to end.
+	 */
+	public synchronized void store(String fileName, List<Long> top, boolean complete) throws Exception {
+		File file = new File(fileName);
+		String key = file.getCanonicalPath();
+		long[] values = new long[top.size()];
+		for(int i = 0; i < values.length; i++) {
+			values[i] = top.get(i);
+		}
+		remove(key);
+		entries.put(key, new Entry(file.length(), file.lastModified(), fingerprint(file), complete, values));
+		this.values += values.length;
+		evict();
+	}
+
+	private void remove(String key) {
+		Entry removed = entries.remove(key);
+		if(removed != null) {
+			values -= removed.top.length;
+		}
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Entry>> eldestFirst = entries.entrySet().iterator();
+		while(values > maxValues && eldestFirst.hasNext()) {
+			values -= eldestFirst.next().getValue().top.length;
+			eldestFirst.remove();
+		}
+	}
+
+	protected synchronized int size() {
+		return entries.size();
+	}
+
+	protected static long fingerprint(File file) throws Exception {
+		CRC32 crc = new CRC32();
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			long length = in.length();
+			byte[] block = new byte[(int) Math.min(FINGERPRINT_BYTES, length)];
+			in.readFully(block);
+			crc.update(block);
+			if(length > FINGERPRINT_BYTES) {
+				in.seek(Math.max(FINGERPRINT_BYTES, length - FINGERPRINT_BYTES));
+				block = new byte[(int) (length - in.getFilePointer())];
+				in.readFully(block);
+				crc.update(block);
+			}
+			return crc.getValue() ^ (length * 31);
+		}
+	}
+
+	/**
+	 * Written to a temporary file and renamed into place, like a Checkpoint.
+	 */
+	public synchronized void save() throws Exception {
+		File target = new File(path);
+		File temporary = new File(path + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+			out.writeUTF(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(entries.size());
+			for(Map.Entry<String, Entry> cached : entries.entrySet()) {
+				Entry entry = cached.getValue();
+				out.writeUTF(cached.getKey());
+				out.writeLong(entry.size);
+				out.writeLong(entry.modified);
+				out.writeLong(entry.fingerprint);
+				out.writeBoolean(entry.complete);
+				out.writeInt(entry.top.length);
+				for(long value : entry.top) {
+					out.writeLong(value);
+				}
+			}
+		}
+		Files.move(temporary.toPath(), target.toPath(),
+				StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private void read(File file) throws Exception {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if(!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION) {
+				System.err.println("Ignoring unreadable summary cache " + file);
+				return;
+			}
+			int count = in.readInt();
+			for(int i = 0; i < count; i++) {
+				String key = in.readUTF();
+				long size = in.readLong();
+				long modified = in.readLong();
+				long fingerprint = in.readLong();
+				boolean complete = in.readBoolean();
+				long[] top = new long[in.readInt()];
+				for(int j = 0; j < top.length; j++) {
+					top[j] = in.readLong();
+				}
+				entries.put(key, new Entry(size, modified, fingerprint, complete, top));
+				values += top.length;
+			}
+		}
+		evict();
+	}
+}
@@ -0,0 +1,136 @@
+package com.lynchdt.questions.topn;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Guesses a lower bound for the N-th largest value from a few thousand lines read at
+ * random positions, before the full scan starts.
+ *
+ * Until the worker heaps fill up, the SharedThreshold is no use and every value costs a
+ * full trip through the queue and a heap insert. On skewed data that can take a long time.
+ * Sampling gets a threshold up front. From the sampled line lengths the files hold about L
+ * lines, so a fraction p = N/L of them are in the top-N, and in S samples we expect S*p of
+ * them - give or take sqrt(S*p*(1-p)). Taking the sample that is CONFIDENCE standard deviations
+ * further down the sorted samples than that leaves the true N-th largest value above our guess
+ * almost always (about 99.9% of the time for 3).
+ *
+ * Almost always isn't always, so the guess is checked afterwards - see TopN.seedHeld(). If
+ * fewer than N values at or above it turn up, it was too high and the scan is run again
+ * without it. Results stay exact either way.
+ *
+ * The sample is a little biased towards lines following long lines (a random byte is more
+ * likely to land in a long line) but for numbers that hardly matters, and the check catches it.
+ */
+public class ThresholdEstimator {
+
+	public static final int DEFAULT_SAMPLES = 10000;
+
+	private static final double CONFIDENCE = 3.0;
+	/**
+	 * Enough for any long and its line ending, whatever line we land in the middle of.
+	 */
+	private static final int PROBE_SIZE = 64;
+	/**
+	 * Rows of a delimited file are longer. Lines that don't fit just aren't sampled.
+	 */
+	private static final int ROW_PROBE_SIZE = 4096;
+
+	private final Random random;
+	private final LineParser parser = new LineParser();
+	private int probeSize = PROBE_SIZE;
+
+	public ThresholdEstimator() {
+		this(new Random());
+	}
+
+	protected ThresholdEstimator(Random random) {
+		this.random = random;
+	}
+
+	/**
+	 * Sample one field of a delimited file, counting from 1.
+	 */
+	public void selectField(char delimiter, int field) {
+		parser.selectField(delimiter, field);
+		probeSize = ROW_PROBE_SIZE;
+	}
+
+	/**
+	 * A value the N-th largest is very probably at or above, or Long.MIN_VALUE if
+	 * the sample can't say.
+	 */
+	public long estimate(List<String> files, int N, int samples) throws Exception {
+		long totalBytes = 0;
+		long[] sizes = new long[files.size()];
+		for(int i = 0; i < files.size(); i++) {
+			sizes[i] = new File(files.get(i)).length();
+			totalBytes += sizes[i];
+		}
+		if(totalBytes == 0 || samples <= 0) { return Long.MIN_VALUE; }
+
+		List<Long> values = new ArrayList<>(samples);
+		long sampledBytes = 0;
+		/** Positions per file, sorted so each file is probed front to back */
+		long[] positions = new long[samples];
+		for(int i = 0; i < samples; i++) {
+			positions[i] = (long) (random.nextDouble() * totalBytes);
+		}
+		Arrays.sort(positions);
+		int next = 0;
+		long fileStart = 0;
+		byte[] probe = new byte[probeSize];
+		for(int f = 0; f < files.size(); f++) {
+			long fileEnd = fileStart + sizes[f];
+			try (RandomAccessFile in = new RandomAccessFile(files.get(f), "r")) {
+				while(next < samples && positions[next] < fileEnd) {
+					int length = sampleLine(in, positions[next] - fileStart, probe, values);
+					if(length > 0) {
+						sampledBytes += length;
+					}
+					next++;
+				}
+			}
+			fileStart = fileEnd;
+		}
+		if(values.isEmpty()) { return Long.MIN_VALUE; }
+
+		double averageLineLength = (double) sampledBytes / values.size();
+		double lines = totalBytes / averageLineLength;
+		double p = Math.min(1.0, N / lines);
+		double expected = values.size() * p;
+		int rank = (int) Math.ceil(expected + CONFIDENCE * Math.sqrt(expected * (1 - p))) + 1;
+		if(rank > values.size()) { return Long.MIN_VALUE; }
+		Collections.sort(values, Collections.reverseOrder());
+		return values.get(rank - 1);
+	}
+
+	/**
+	 * Parses the first whole line after the position. Returns its length including the
+	 * line ending, or -1 if there wasn't a number there.
+	 */
+	private int sampleLine(RandomAccessFile in, long position, byte[] probe, List<Long> values) throws Exception {
+		/** Start one byte early, so a position at the start of a line keeps that line */
+		long from = Math.max(0, position - 1);
+		in.seek(from);
+		int read = in.read(probe, 0, probe.length);
+		if(read <= 0) { return -1; }
+		int start = 0;
+		if(from > 0) {
+			while(start < read && probe[start] != '\n') { start++; }
+			start++;
+		}
+		int end = start;
+		while(end < read && probe[end] != '\n') { end++; }
+		if(end >= read || end == start) { return -1; }
+		int lineEnd = end > start && probe[end - 1] == '\r' ? end - 1 : end;
+		if(parser.parse(probe, start, lineEnd) != LineParser.OK) { return -1; }
+		values.add(parser.getValue());
+		return end - start + 1;
+	}
+}
@@ -1,11 +1,16 @@
 package com.lynchdt.questions.topn;
 
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Extract the top-N numbers from a file set of Long integers encoded as
@@ -33,17 +38,124 @@ public class TopN {
 	
 	private final int N;
 	private final List<String> files;
+	/**
+	 * The files that actually need reading, which is all of them unless some
+	 * are answered by the summary cache.
+	 */
+	private List<String> filesToRead;
 	
 	/**
 	 * The top-N as a union of all top-Ns from the workers.
 	 */
 	private final BoundedMinHeap overallHeap;
 	
+	/**
+	 * The most frequent values as a union of the workers' summaries. Only
+	 * present when asked for.
+	 */
+	private SpaceSavingSummary overallFrequencies;
+	private int frequentK;
+	
+	/**
+	 * The distribution as a union of the workers' sketches. Only present when asked for.
+	 */
+	private QuantileSketch overallQuantiles;
+	
+	/**
+	 * Only when following files as they grow.
+	 */
+	private SlidingWindowTopN window;
+	
+	/**
+	 * Only when checkpointing. A checkpoint found at start up for the same files
+	 * and N is resumed from.
+	 */
+	private String checkpointPath;
+	private long checkpointInterval;
+	private long lastCheckpoint;
+	private Checkpoint resumeFrom;
+	
+	/**
+	 * Only when using a summary cache. Cached top values are kept apart from overallHeap
+	 * and only merged in at the end, so a checkpoint covers just the files being read.
+	 */
+	private SummaryCache summaryCache;
+	private int cachedM;
+	private BoundedMinHeap cachedHeap;
+	
+	/**
+	 * A lower bound on the final N-th largest value, so readers can throw away values 
+	 * (and indexed blocks) that can't make it. Only when nothing else needs every value.
+	 */
+	private SharedThreshold threshold;
+	/**
+	 * Only when using block indexes. Files with a valid index are read by plan,
+	 * the others have one built while they are read.
+	 */
+	private int indexBlockSize;
+	private Map<String, BlockIndex> blockIndexes;
+	/**
+	 * Only when sampling for a threshold before the scan. The seed is checked 
+	 * once the scan is done.
+	 */
+	private int sampleSize;
+	private long seed = Long.MIN_VALUE;
+	/**
+	 * Only when reading ahead. Each reader keeps this many blocks being read at once.
+	 */
+	private int readAheadBlockSize;
+	private int readAheadDepth;
+	
+	/**
+	 * Only when running inside a TopNServer, whose pool is shared by every query
+	 * and outlives this one.
+	 */
+	private ExecutorService sharedPool;
+	/**
+	 * Progress and results are reported here.
+	 */
+	private PrintStream out = System.out;
+	/**
+	 * Only when writing the result to a file rather than printing it.
+	 */
+	private String outputPath;
+	private boolean binaryOutput;
+	private long[] result;
+	/**
+	 * Shared by every reader. Readers going over the same lines a second time get a
+	 * quiet copy, so nothing is counted twice.
+	 */
+	private RejectPolicy rejects = RejectPolicy.skip();
+	private RejectPolicy readerRejects = rejects;
+	/**
+	 * Only when reading one field of delimited files.
+	 */
+	private char delimiter;
+	private int field = 0;
+	/**
+	 * Only when workers insert into one shared top-N rather than heaps of their own.
+	 */
+	private int stripes = 0;
+	private ConcurrentTopN shared;
+	
+	/**
+	 * Counted down as each reader and worker stops, so finishing is noticed
+	 * straight away rather than on the next poll.
+	 */
+	private CountDownLatch readersDone;
+	private CountDownLatch workersDone;
+	
 	private final int UPDATE_INTERVAL = 1000;
 	/**
-	 * Some time to back off from asking 'are we there yet' when required.
+	 * How often a time window is checked for values sliding out of it when 
+	 * nothing new is arriving.
 	 */
-	private final int BACKOFF_INTERVAL = 100;
+	private final int EXPIRY_INTERVAL = 50;
+	/**
+	 * How long a checkpoint waits for a reader to pause, or for the workers to take 
+	 * another value, before giving up - every reader paused so far waits with it.
+	 */
+	private final long CATCH_UP_TIMEOUT = 30000;
 	
 
 	public TopN(List<String> files, int N, int workerCount, int queueSize) {
@@ -57,12 +169,182 @@ public class TopN {
 		this.workerCount = workerCount;
 		this.N=N;
 		this.files=files;
+		this.filesToRead=files;
+	}
+
+	/**
+	 * Also report the k most frequent values. Each worker (and the overall result) keeps
+	 * a Space-Saving summary of the given number of counters. More counters than k 
+	 * tightens the error bound, which is (lines read)/counters.
+	 */
+	public void trackMostFrequent(int k, int counters) {
+		if(k <= 0 || counters < k) {
+			throw new IllegalArgumentException("Invalid most frequent parameters");
+		}
+		this.frequentK = k;
+		this.overallFrequencies = new SpaceSavingSummary(counters);
+	}
+
+	/**
+	 * Also report p50/p99/p999 of the values read. The sketch accuracy parameter k 
+	 * gives a rank error of about 1.7/k.
+	 */
+	public void trackQuantiles(int k) {
+		this.overallQuantiles = new QuantileSketch(k);
+	}
+
+	/**
+	 * Don't stop at the end of the files, keep reading whatever is appended to them
+	 * and report the top-N of the window every time it changes. Runs until 
+	 * stopFollowing() (or the process is killed).
+	 */
+	public void follow(SlidingWindowTopN window) {
+		this.window = window;
+	}
+	
+	public void stopFollowing() {
+		fileReaders.forEach((reader) -> {
+			reader.stopFollowing();
+		});
+	}
+
+	/**
+	 * Periodically save progress so that a failed scan can be resumed by running
+	 * again with the same files and N.
+	 */
+	public void checkpointTo(String path, long intervalMillis) {
+		if(path==null || intervalMillis <= 0) {
+			throw new IllegalArgumentException("Invalid checkpoint parameters");
+		}
+		this.checkpointPath = path;
+		this.checkpointInterval = intervalMillis;
+	}
+
+	/**
+	 * Answer files from the cache where it has their top-M (M >= N), and cache the
+	 * top-M of every file that does get read in full.
+	 */
+	public void useSummaryCache(SummaryCache cache, int M) {
+		if(cache==null || M < N) {
+			throw new IllegalArgumentException("Invalid summary cache parameters");
+		}
+		this.summaryCache = cache;
+		this.cachedM = M;
+	}
+
+	/**
+	 * Skip blocks of files that can't contain any of the top-N, using (and building) 
+	 * a zone map index next to each file.
+	 */
+	public void useBlockIndexes(int blockSize) {
+		if(blockSize <= 0) {
+			throw new IllegalArgumentException("Invalid block size");
+		}
+		this.indexBlockSize = blockSize;
+	}
+
+	/**
+	 * Before scanning, sample lines at random positions to guess a threshold and
+	 * get filtering going straight away.
+	 */
+	public void sampleForThreshold(int samples) {
+		if(samples <= 0) {
+			throw new IllegalArgumentException("Invalid sample size");
+		}
+		this.sampleSize = samples;
+	}
+
+	/**
+	 * Read the given field (counting from 1, like cut -f) of delimited files, rather 
+	 * than the whole line.
+	 */
+	public void selectField(char delimiter, int field) {
+		if(field <= 0) {
+			throw new IllegalArgumentException("Invalid field");
+		}
+		this.delimiter = delimiter;
+		this.field = field;
+	}
+
+	/**
+	 * Have every worker insert into one top-N of the given number of stripes, turning
+	 * away values below the threshold before taking any lock. Nothing is kept per worker,
+	 * so there is nothing to merge from each of them.
+	 */
+	public void insertConcurrently(int stripes) {
+		if(stripes <= 0) {
+			throw new IllegalArgumentException("Invalid number of stripes");
+		}
+		this.stripes = stripes;
+	}
+
+	/**
+	 * What to do with lines that aren't a plain long. By default they are counted and skipped.
+	 */
+	public void handleBadLines(RejectPolicy rejects) {
+		if(rejects==null) {
+			throw new IllegalArgumentException("Invalid bad line policy");
+		}
+		this.rejects = rejects;
+		this.readerRejects = rejects;
+	}
+
+	/**
+	 * Have every reader keep depth blocks of blockSize bytes of its file being read
+	 * in the background, rather than reading a buffer at a time between parsing.
+	 */
+	public void readAhead(int blockSize, int depth) {
+		if(blockSize <= 0 || depth <= 0) {
+			throw new IllegalArgumentException("Invalid read ahead parameters");
+		}
+		this.readAheadBlockSize = blockSize;
+		this.readAheadDepth = depth;
+	}
+
+	/**
+	 * Run the readers and workers on an existing pool rather than starting new ones.
+	 */
+	public void runOn(ExecutorService pool) {
+		this.sharedPool = pool;
+	}
+	
+	public void reportTo(PrintStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Write the result to a file, one value per line or (binary) an int count followed
+	 * by the longs, rather than printing it.
+	 */
+	public void writeResultTo(String path, boolean binary) {
+		if(path==null || path.isEmpty()) {
+			throw new IllegalArgumentException("Invalid output file");
+		}
+		this.outputPath = path;
+		this.binaryOutput = binary;
 	}
 
 	public void execute() throws Exception {
+		if(field > 0 && (summaryCache!=null || indexBlockSize > 0)) {
+			throw new IllegalArgumentException("Summary caches and block indexes are kept for whole lines, not fields");
+		}
+		if(rejects.repairs() && (summaryCache!=null || indexBlockSize > 0)) {
+			throw new IllegalArgumentException("Summary caches and block indexes are kept for lines as they are, not clamped");
+		}
+		if(!tracksEveryValue()) {
+			threshold = new SharedThreshold();
+		}
+		lookupSummaryCache();
+		resumeFromCheckpoint();
+		loadBlockIndexes();
+		seedThresholdFromSample();
 		prepareAndStartWorkerPool();
 		prepareAndStartFileReaders();
-		reportProgress();
+		if(window!=null) {
+			reportWindow();
+		} else {
+			reportProgress();
+		}
 		reportResult();
 	}
 
@@ -70,18 +352,68 @@ public class TopN {
 	 * These guys will hang around until there is work to do.
 	 */
 	protected void prepareAndStartWorkerPool() {
-		workerExecutor = Executors.newFixedThreadPool(workerCount);
+		workerExecutor = sharedPool!=null ? sharedPool : Executors.newFixedThreadPool(workerCount);
+		workersDone = new CountDownLatch(workerCount);
+		if(stripes > 0) {
+			shared = new ConcurrentTopN(N, stripes, threshold!=null ? threshold : new SharedThreshold());
+		}
 		for (int i = 0; i < workerCount; i++) {
 			TopNWorker worker = new TopNWorker(N, workQueue);
+			worker.countDownWhenDone(workersDone);
+			if(window!=null) {
+				worker.feedWindow(window);
+			}
+			if(threshold!=null) {
+				worker.publishThresholdTo(threshold);
+			}
+			if(shared!=null) {
+				worker.insertInto(shared);
+			}
+			if(overallFrequencies!=null) {
+				worker.trackFrequencies(overallFrequencies.getCapacity());
+			}
+			if(overallQuantiles!=null) {
+				worker.trackQuantiles(overallQuantiles.getK());
+			}
 			workers.add(worker);
 			workerExecutor.submit(worker);
 		}
 	}
 
 	protected void prepareAndStartFileReaders() {
-		fileReaderExecutor = Executors.newFixedThreadPool(files.size());
-		for(String file : files) {
+		fileReaderExecutor = sharedPool!=null ? sharedPool : Executors.newFixedThreadPool(Math.max(1, filesToRead.size()));
+		readersDone = new CountDownLatch(filesToRead.size());
+		for(String file : filesToRead) {
 			NumberFileReader reader = new NumberFileReader(workQueue, file);
+			reader.countDownWhenDone(readersDone);
+			if(summaryCache!=null) {
+				reader.keepTop(cachedM);
+			}
+			if(window!=null) {
+				reader.follow();
+			}
+			if(resumeFrom!=null) {
+				int index = fileReaders.size();
+				reader.startAt(resumeFrom.getOffset(index), resumeFrom.getLinesRead(index));
+			}
+			if(threshold!=null) {
+				reader.filterBelow(threshold);
+			}
+			reader.handleBadLines(readerRejects);
+			if(field > 0) {
+				reader.selectField(delimiter, field);
+			}
+			if(readAheadDepth > 0) {
+				reader.readAhead(readAheadBlockSize, readAheadDepth);
+			}
+			if(blockIndexes!=null) {
+				BlockIndex index = blockIndexes.get(file);
+				if(index==null) {
+					reader.buildIndex(indexBlockSize);
+				} else {
+					reader.readBlocks(index.readingPlan(), threshold);
+				}
+			}
 			fileReaders.add(reader);
 			fileReaderExecutor.submit(reader);
 		}
@@ -94,71 +426,403 @@ public class TopN {
 	 * 
 	 * Some threads have to stop processing while reports are processed, so throughput is 
 	 * not at maximum - it's worthwhile trade-off though.
+	 * 
+	 * Returns as soon as the last reader is done, so a small scan doesn't report at all.
 	 */
 	protected void reportProgress() throws Exception {
-		while (!filesRead()) {
+		while (!readersDone.await(UPDATE_INTERVAL, TimeUnit.MILLISECONDS)) {
+			mergePartialResults();
+			out.println("Top " + this.N
+					+ " results after about " + linesRead() + " lines, "
+					+ overallHeap.summary());
+			printMostFrequent();
+			printQuantiles();
+			if(checkpointDue()) {
+				checkpoint();
+			}
+		}
+	}
+	
+	private boolean checkpointDue() {
+		return checkpointPath!=null 
+				&& System.currentTimeMillis() - lastCheckpoint >= checkpointInterval;
+	}
+	
+	/**
+	 * Pause every reader at a line boundary, let the workers catch up with everything
+	 * that was queued and merge their heaps. At that point the overall results cover 
+	 * exactly the lines before each reader's offset - nothing is in flight to be lost
+	 * or counted twice. The pause is about as long as it takes to drain the queue.
+	 * 
+	 * If that can't happen - a worker has died, or nothing moves for CATCH_UP_TIMEOUT -
+	 * this throws rather than hold every reader paused for good.
+	 */
+	protected void checkpoint() throws Exception {
+		try {
+			for (NumberFileReader reader : fileReaders) {
+				if(!reader.pause(CATCH_UP_TIMEOUT)) {
+					throw new RuntimeException("Cannot checkpoint - " + reader.getFileName() 
+							+ " could not be paused within " + CATCH_UP_TIMEOUT + "ms");
+				}
+			}
+			waitForWorkersToCatchUp();
 			mergePartialResults();
-			overallHeap.heapSort();
-			System.out.println("Top " + this.N
-					+ " results after about " + linesRead() + " lines "
-					+ overallHeap.toString());
-			Thread.sleep(UPDATE_INTERVAL);
+			long[] offsets = new long[fileReaders.size()];
+			long[] lines = new long[fileReaders.size()];
+			for(int i = 0; i < fileReaders.size(); i++) {
+				offsets[i] = fileReaders.get(i).getOffset();
+				lines[i] = fileReaders.get(i).getRead();
+			}
+			new Checkpoint(N, filesToRead, parseOptions(), offsets, lines, overallHeap.getHeap(), 
+					overallFrequencies, overallQuantiles).save(checkpointPath);
+			lastCheckpoint = System.currentTimeMillis();
+		} finally {
+			fileReaders.forEach((reader) -> {
+				reader.resume();
+			});
+		}
+	}
+	
+	/**
+	 * A worker that has stopped will never take what is left on the queue.
+	 */
+	private void waitForWorkersToCatchUp() throws Exception {
+		long enqueued = 0;
+		for (NumberFileReader reader : fileReaders) {
+			enqueued += reader.getEnqueued();
+		}
+		long processed = processed();
+		long lastProgress = System.currentTimeMillis();
+		while(processed < enqueued) {
+			if(workersDone.getCount() < workerCount) {
+				throw new RuntimeException("Cannot checkpoint - a worker stopped with " 
+						+ (enqueued - processed) + " value(s) still queued");
+			}
+			if(System.currentTimeMillis() - lastProgress > CATCH_UP_TIMEOUT) {
+				throw new RuntimeException("Cannot checkpoint - the workers took nothing for " 
+						+ CATCH_UP_TIMEOUT + "ms with " + (enqueued - processed) + " value(s) still queued");
+			}
+			workersDone.await(1, TimeUnit.MILLISECONDS);
+			long now = processed();
+			if(now > processed) {
+				processed = now;
+				lastProgress = System.currentTimeMillis();
+			}
+		}
+	}
+	
+	private long processed() {
+		long sum = 0;
+		for (TopNWorker worker : workers) {
+			sum += worker.getProcessed();
+		}
+		return sum;
+	}
+	
+	/**
+	 * Everything about how lines are read that changes which values a file gives.
+	 */
+	protected String parseOptions() {
+		return "field " + field + (field > 0 ? " delimited by '" + delimiter + "'" : "") 
+				+ ", " + rejects.getName() + " bad lines";
+	}
+	
+	/**
+	 * Not when checkpointing, as a checkpoint taken with a seed that turns out to be
+	 * too high could be resumed from without anything checking it.
+	 */
+	protected void seedThresholdFromSample() throws Exception {
+		if(sampleSize <= 0 || threshold==null || checkpointPath!=null) { return; }
+		seed = estimateThreshold();
+		if(seed != Long.MIN_VALUE) {
+			out.println("Seeded threshold " + seed + " from " + sampleSize + " samples");
+			threshold.raiseTo(seed);
+		}
+	}
+	
+	protected long estimateThreshold() throws Exception {
+		ThresholdEstimator estimator = new ThresholdEstimator();
+		if(field > 0) {
+			estimator.selectField(delimiter, field);
+		}
+		return estimator.estimate(filesToRead, N, sampleSize);
+	}
+	
+	/**
+	 * Everything below the seed was thrown away. That's only safe if at least N 
+	 * values at or above it were found, in which case they are exactly the top-N.
+	 */
+	protected boolean seedHeld() {
+		if(seed == Long.MIN_VALUE) { return true; }
+		return overallHeap.isFull() && overallHeap.getMinimum() >= seed;
+	}
+	
+	private void rescanWithoutSeed() throws Exception {
+		out.println("Seeded threshold " + seed + " was too high, scanning again without it");
+		seed = Long.MIN_VALUE;
+		overallHeap.clear();
+		workers = new ArrayList<>();
+		fileReaders = new ArrayList<>();
+		threshold = new SharedThreshold();
+		readerRejects = rejects.quietly();
+		prepareAndStartWorkerPool();
+		prepareAndStartFileReaders();
+		reportProgress();
+		reportResult();
+	}
+	
+	/**
+	 * Indexes can only be used to skip blocks when values are being filtered anyway, and
+	 * not when checkpointing since a reader hopping between blocks has no single offset.
+	 */
+	protected void loadBlockIndexes() throws Exception {
+		if(indexBlockSize <= 0) { return; }
+		blockIndexes = new HashMap<>();
+		if(threshold==null || checkpointPath!=null) { return; }
+		for(String file : filesToRead) {
+			BlockIndex index = BlockIndex.load(file);
+			if(index!=null) {
+				blockIndexes.put(file, index);
+			}
+		}
+		threshold.raiseTo(BlockIndex.threshold(new ArrayList<>(blockIndexes.values()), N));
+	}
+	
+	private void saveBlockIndexes() throws Exception {
+		int blocksRead = 0;
+		int blocksSkipped = 0;
+		for (NumberFileReader reader : fileReaders) {
+			BlockIndex index = reader.getIndex();
+			if(index!=null) {
+				index.save(reader.getFileName());
+			}
+			blocksRead += reader.getBlocksRead();
+			blocksSkipped += reader.getBlocksSkipped();
+		}
+		if(blocksRead + blocksSkipped > 0) {
+			out.println("Read " + blocksRead + " indexed block(s), skipped " + blocksSkipped);
+		}
+	}
+	
+	protected void lookupSummaryCache() throws Exception {
+		if(summaryCache==null) { return; }
+		cachedHeap = new BoundedMinHeap(N);
+		filesToRead = new ArrayList<>();
+		for(String file : files) {
+			long[] top = summaryCache.lookup(file, N);
+			if(top==null) {
+				filesToRead.add(file);
+			} else {
+				for(long value : top) {
+					cachedHeap.insert(value);
+				}
+			}
+		}
+		if(threshold!=null && cachedHeap.isFull()) {
+			threshold.raiseTo(cachedHeap.getMinimum());
+		}
+		if(filesToRead.size() < files.size()) {
+			out.println((files.size() - filesToRead.size()) + " of " + files.size() 
+					+ " file(s) answered from the summary cache");
+		}
+	}
+	
+	private void storeSummaries() throws Exception {
+		for (NumberFileReader reader : fileReaders) {
+			BoundedMinHeap fileTop = reader.getFileTop();
+			if(fileTop!=null) {
+				summaryCache.store(reader.getFileName(), fileTop.getHeap(), reader.getRead() < cachedM);
+			}
+		}
+		summaryCache.save();
+	}
+	
+	protected void resumeFromCheckpoint() throws Exception {
+		if(checkpointPath==null) { return; }
+		lastCheckpoint = System.currentTimeMillis();
+		Checkpoint checkpoint = Checkpoint.load(checkpointPath);
+		if(checkpoint==null) { return; }
+		if(!checkpoint.matches(filesToRead, N, parseOptions())) {
+			System.err.println("Ignoring checkpoint " + checkpointPath 
+					+ " - it is for different files, N or parsing, or the files have changed since");
+			return;
+		}
+		resumeFrom = checkpoint;
+		checkpoint.getTop().forEach((value) -> {
+			overallHeap.insert(value);
+		});
+		if(overallFrequencies!=null && checkpoint.getFrequencies()!=null) {
+			overallFrequencies.merge(checkpoint.getFrequencies());
+		}
+		if(overallQuantiles!=null && checkpoint.getQuantiles()!=null) {
+			overallQuantiles.merge(checkpoint.getQuantiles());
+		}
+	}
+
+	/**
+	 * Rather than polling at UPDATE_INTERVAL, wait on the window itself so a
+	 * new top-N is printed within milliseconds of the data arriving. Changes 
+	 * arriving while printing are rolled up into the next report.
+	 */
+	protected void reportWindow() throws Exception {
+		long version = window.getVersion();
+		while (readersDone.getCount() > 0) {
+			window.expire();
+			long current = window.awaitChange(version, EXPIRY_INTERVAL);
+			if(current != version) {
+				version = current;
+				out.println("Top " + this.N + " of last " + window.getSize()
+						+ " values after about " + linesRead() + " lines "
+						+ window.toString());
+			}
 		}
 	}
 
 	protected void reportResult() throws Exception {
+		readersDone.await();
+		try {
+			rejects.close();
+		} finally {
+			/** However the readers ended, the workers are still waiting on the queue */
+			endStreamAndWaitForWorkers();
+			cleanUp();
+		}
 		if(!filesRead()) { 
-			throw new RuntimeException("Cannot report results - file reading in progress.");
+			throw new RuntimeException("Cannot report results - not every file could be read." 
+					+ (readerFailure()!=null ? " " + readerFailure().getMessage() : ""), readerFailure());
 		}
-		waitForQueueToDrain();
-		instructWorkersToFinish();
-		waitForWorkersToFinish();
-		cleanUp();
 		mergePartialResults();
+		if(summaryCache!=null) {
+			cachedHeap.merge(overallHeap);
+			storeSummaries();
+		}
+		if(indexBlockSize > 0) {
+			saveBlockIndexes();
+		}
+		if(!seedHeld()) {
+			rescanWithoutSeed();
+			return;
+		}
 		sortAndPrint();
+		if(checkpointPath!=null) {
+			Checkpoint.delete(checkpointPath);
+		}
 	}
 	
-	protected void sortAndPrint() {
-		overallHeap.heapSort();
-		System.out.println("Top-" + this.N + " -> "
-			+ overallHeap.toString());
+	/**
+	 * The result is written out a buffer at a time. For a large N printing it as
+	 * one String cost more than the sort.
+	 */
+	protected void sortAndPrint() throws Exception {
+		result = overallHeap.sortDescending();
+		if(outputPath!=null) {
+			try (ResultWriter writer = binaryOutput ? ResultWriter.toBinaryFile(outputPath) 
+					: ResultWriter.toTextFile(outputPath)) {
+				writer.write(result);
+			}
+			out.println("Top-" + this.N + " -> " + result.length + " value(s) written to " + outputPath);
+		} else {
+			try (ResultWriter writer = ResultWriter.toConsole(out, this.N)) {
+				writer.write(result);
+			}
+		}
+		if(rejects.summary()!=null) {
+			out.println("Bad lines -> " + rejects.summary());
+		}
+		printMostFrequent();
+		printQuantiles();
+		if(window!=null) {
+			out.println("Top-" + this.N + " of window -> " + window.toString());
+		}
 	}
 	
-	private void waitForQueueToDrain() throws Exception {
-		while (workQueue.size() > 0) {
-			Thread.sleep(BACKOFF_INTERVAL);
-		}
+	protected void printQuantiles() {
+		if(overallQuantiles==null || overallQuantiles.getCount()==0) { return; }
+		out.println("Quantiles of " + overallQuantiles.getCount() + " values -> "
+			+ overallQuantiles.toString());
 	}
 	
-	private void instructWorkersToFinish() {
-		workers.forEach((worker) -> {
-			worker.finish();
-		});
+	protected void printMostFrequent() {
+		if(overallFrequencies==null) { return; }
+		out.println("Most frequent-" + frequentK + " (+/-" + overallFrequencies.maxError() + ") -> "
+			+ overallFrequencies.getMostFrequent(frequentK));
 	}
 	
-	private void waitForWorkersToFinish() throws Exception {
-		while(workersStillWorking()) {
-			Thread.sleep(BACKOFF_INTERVAL);
-		}
+	/**
+	 * The readers have stopped, so everything they will queue is queued. Each worker
+	 * stops once it finds the queue empty after being told, so once they have all 
+	 * stopped every value has been processed.
+	 */
+	private void endStreamAndWaitForWorkers() throws Exception {
+		workers.forEach((worker) -> {
+			worker.endOfStream();
+		});
+		workersDone.await();
 	}
 	
-	private boolean workersStillWorking() {
-		boolean finishingWork = true;
-		for (TopNWorker worker : workers) {
-			finishingWork = !worker.isDone();
-		};
-		return finishingWork;
+	private boolean tracksEveryValue() {
+		return overallFrequencies!=null || overallQuantiles!=null || window!=null;
 	}
 	
+	/**
+	 * A shared top-N is drained too, so the overall heap is the one place the values 
+	 * are - it also holds anything resumed or cached.
+	 */
 	private void mergePartialResults() {
+		if(shared!=null) {
+			shared.drainInto(overallHeap);
+		}
 		workers.forEach((worker) -> {
 			worker.applyToHeap(overallHeap);
+			if(overallFrequencies!=null) {
+				worker.applyToSummary(overallFrequencies);
+			}
+			if(overallQuantiles!=null) {
+				worker.applyToSketch(overallQuantiles);
+			}
 		});
+		if(threshold!=null && overallHeap.isFull()) {
+			threshold.raiseTo(overallHeap.getMinimum());
+		}
 	}
 
+	/**
+	 * A shared pool is left alone. By now the readers are finished and the workers
+	 * have been told to.
+	 */
 	public void cleanUp() {
-		fileReaderExecutor.shutdownNow();
-		workerExecutor.shutdownNow();
+		if(sharedPool!=null) { return; }
+		if(fileReaderExecutor!=null) {
+			fileReaderExecutor.shutdownNow();
+		}
+		if(workerExecutor!=null) {
+			workerExecutor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Stops the readers where they are and the workers once they have what was queued,
+	 * however far execute() got. Does nothing once they have stopped, so it's safe to call 
+	 * after a scan that finished too.
+	 */
+	public void stop() throws Exception {
+		for (NumberFileReader reader : fileReaders) {
+			reader.stop();
+		}
+		if(readersDone!=null) {
+			readersDone.await();
+		}
+		if(workersDone!=null && workersDone.getCount() > 0) {
+			endStreamAndWaitForWorkers();
+		}
+		cleanUp();
+	}
+
+	private Exception readerFailure() {
+		for (NumberFileReader reader : fileReaders) {
+			if(reader.getFailure()!=null) { return reader.getFailure(); }
+		}
+		return null;
 	}
 
 	private boolean filesRead() {
@@ -179,28 +843,151 @@ public class TopN {
 
 	public static void main(String argsv[]) throws Exception {
 		if(argsv.length<3) {
-			System.out.println("> java TopN <n> <workerCount> <queueSize> file1 [file2 .. fileM] ");
+			System.out.println("> java TopN <n> <workerCount> <queueSize> [--option=value ..] file1 [file2 .. fileM] ");
+			System.out.println("Options:");
+			System.out.println("  --frequent=<k>           also report the k most frequent values");
+			System.out.println("  --frequent-counters=<c>  counters kept for --frequent, default 10k");
+			System.out.println("  --quantiles[=<k>]        also report p50/p99/p999, sketch size k default 200");
+			System.out.println("  --follow                 keep reading appended lines, reporting a sliding window");
+			System.out.println("  --window-lines=<w>       window of the last w lines, default 1000000");
+			System.out.println("  --window-millis=<t>      window of the last t milliseconds instead");
+			System.out.println("  --checkpoint=<file>      save progress to file, resuming from it if present");
+			System.out.println("  --checkpoint-secs=<s>    seconds between checkpoints, default 60");
+			System.out.println("  --cache=<file>           answer unchanged files from a cache of each file's top-M");
+			System.out.println("  --cache-m=<m>            values cached per file, default max(n, 1000)");
+			System.out.println("  --cache-values=<v>       most values the cache holds, default 10000000");
+			System.out.println("  --index[=<bytes>]        skip blocks using file.idx zone maps, built if missing. Block size default 1Mb");
+			System.out.println("  --sample[=<s>]           seed the threshold from s randomly sampled lines, default 10000");
+			System.out.println("  --read-ahead[=<bytes>]   read files ahead in the background in blocks, default 4Mb");
+			System.out.println("  --read-ahead-depth=<d>   blocks being read ahead per file, default 4");
+			System.out.println("  --output=<file>          write the result to file, one value per line");
+			System.out.println("  --output-binary          write it as an int count and that many longs instead");
+			System.out.println("  --field=<f>              read field f (from 1) of delimited lines rather than the whole line");
+			System.out.println("  --delimiter=<d>          field delimiter, default tab (\\t)");
+			System.out.println("  --striped[=<s>]          workers insert into one top-N of s stripes, default workerCount");
+			System.out.println("  --bad-lines=<policy>     skip (default), clamp (trim and clamp what can be - not with --cache or --index) or fail");
+			System.out.println("  --max-bad-lines=<k>      bad lines tolerated before failing, default 0");
+			System.out.println("  --rejects=<file>         write dropped lines to file with their byte offsets");
 			System.exit(-1);
 		}
 		int N = Integer.parseInt(argsv[0]);
 		int workerCount = Integer.parseInt(argsv[1]);
 		int queueSize = Integer.parseInt(argsv[2]);
 		List<String> files = new ArrayList<>();
+		Map<String, String> options = new HashMap<>();
 		for(int i = 3; i < argsv.length; i++) {
-			files.add(argsv[i]);
+			if(argsv[i].startsWith("--")) {
+				String[] option = argsv[i].substring(2).split("=", 2);
+				options.put(option[0], option.length > 1 ? option[1] : "");
+			} else {
+				files.add(argsv[i]);
+			}
 		}
 		TopN topN = new TopN(files, N, workerCount, queueSize);
+		configure(topN, options);
 		Timer timer = Timer.createAndStart();
-		topN.execute();
+		try {
+			topN.execute();
+		} catch(RuntimeException ex) {
+			System.err.println(ex.getMessage());
+			System.exit(1);
+		}
 		topN.cleanUp();
 		timer.stop();
 		System.out.println("Complete in " + timer.toString());
 	}
 	
+	protected static void configure(TopN topN, Map<String, String> options) throws Exception {
+		if(options.containsKey("frequent")) {
+			int k = Integer.parseInt(options.get("frequent"));
+			int counters = options.containsKey("frequent-counters") ? 
+					Integer.parseInt(options.get("frequent-counters")) : k * 10;
+			topN.trackMostFrequent(k, counters);
+		}
+		if(options.containsKey("quantiles")) {
+			String k = options.get("quantiles");
+			topN.trackQuantiles(k.isEmpty() ? QuantileSketch.DEFAULT_K : Integer.parseInt(k));
+		}
+		if(options.containsKey("follow")) {
+			if(options.containsKey("window-millis")) {
+				topN.follow(SlidingWindowTopN.overMillis(topN.N, Long.parseLong(options.get("window-millis"))));
+			} else {
+				long lines = options.containsKey("window-lines") ? Long.parseLong(options.get("window-lines")) : 1000000;
+				topN.follow(SlidingWindowTopN.overLines(topN.N, lines));
+			}
+		}
+		if(options.containsKey("checkpoint")) {
+			long seconds = options.containsKey("checkpoint-secs") ? Long.parseLong(options.get("checkpoint-secs")) : 60;
+			topN.checkpointTo(options.get("checkpoint"), seconds * 1000);
+		}
+		if(options.containsKey("cache")) {
+			int M = options.containsKey("cache-m") ? Integer.parseInt(options.get("cache-m")) : Math.max(topN.N, 1000);
+			long maxValues = options.containsKey("cache-values") ? Long.parseLong(options.get("cache-values")) : 10000000;
+			topN.useSummaryCache(SummaryCache.open(options.get("cache"), maxValues), M);
+		}
+		if(options.containsKey("index")) {
+			String blockSize = options.get("index");
+			topN.useBlockIndexes(blockSize.isEmpty() ? BlockIndex.DEFAULT_BLOCK_SIZE : Integer.parseInt(blockSize));
+		}
+		if(options.containsKey("sample")) {
+			String samples = options.get("sample");
+			topN.sampleForThreshold(samples.isEmpty() ? ThresholdEstimator.DEFAULT_SAMPLES : Integer.parseInt(samples));
+		}
+		if(options.containsKey("read-ahead")) {
+			String blockSize = options.get("read-ahead");
+			int depth = options.containsKey("read-ahead-depth") ? 
+					Integer.parseInt(options.get("read-ahead-depth")) : ReadAhead.DEFAULT_DEPTH;
+			topN.readAhead(blockSize.isEmpty() ? ReadAhead.DEFAULT_BLOCK_SIZE : Integer.parseInt(blockSize), depth);
+		}
+		if(options.containsKey("field")) {
+			String delimiter = options.getOrDefault("delimiter", "\\t").replace("\\t", "\t");
+			if(delimiter.length() != 1) {
+				throw new IllegalArgumentException("Delimiter must be a single character");
+			}
+			topN.selectField(delimiter.charAt(0), Integer.parseInt(options.get("field")));
+		}
+		if(options.containsKey("striped")) {
+			String stripes = options.get("striped");
+			topN.insertConcurrently(stripes.isEmpty() ? topN.workerCount : Integer.parseInt(stripes));
+		}
+		if(options.containsKey("bad-lines") || options.containsKey("rejects")) {
+			long maxRejects = options.containsKey("max-bad-lines") ? Long.parseLong(options.get("max-bad-lines")) : 0;
+			RejectPolicy rejects = RejectPolicy.named(options.getOrDefault("bad-lines", "skip"), maxRejects);
+			if(options.containsKey("rejects")) {
+				rejects.writeRejectsTo(options.get("rejects"));
+			}
+			topN.handleBadLines(rejects);
+		}
+		if(options.containsKey("output")) {
+			topN.writeResultTo(options.get("output"), options.containsKey("output-binary"));
+		}
+	}
+	
 	protected BoundedMinHeap getHeap() {
 		return this.overallHeap;
 	}
 	
+	/**
+	 * Highest first, once the scan is done.
+	 */
+	protected long[] getResult() {
+		return this.result;
+	}
+	
+	/**
+	 * True once the workers have stopped and any pools of our own have shut down.
+	 */
+	protected boolean awaitStopped(long millis) throws InterruptedException {
+		if(!workersDone.await(millis, TimeUnit.MILLISECONDS)) { return false; }
+		if(sharedPool!=null) { return true; }
+		return workerExecutor.awaitTermination(millis, TimeUnit.MILLISECONDS) 
+				&& fileReaderExecutor.awaitTermination(millis, TimeUnit.MILLISECONDS);
+	}
+	
+	protected int getN() {
+		return this.N;
+	}
+	
 	protected int workerCount() {
 		return this.workerCount;
 	}
@@ -209,6 +996,10 @@ public class TopN {
 		return this.files.size();
 	}
 	
+	protected List<String> filesToRead() {
+		return this.filesToRead;
+	}
+	
 	protected int getQueueCapacity() {
 		if(workQueue!=null)
 			return this.workQueue.remainingCapacity();
@@ -0,0 +1,285 @@
+package com.lynchdt.questions.topn;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Longs;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Keeps a JVM running to answer top-N queries over HTTP on the loopback interface, so
+ * each query doesn't pay for JVM start up, JIT warm up and new thread pools. On small
+ * files that overhead is most of the run.
+ *
+ * > curl 'localhost:4001/topn?n=5&file=/data/a.txt&file=/data/b.txt&sample'
+ * {"n":5,"files":2,"millis":31,"top":[..]}
+ *
+ * Parameters are n, file (repeated), workers (default 2), queue (default 10000) and
+ * format (json or binary - an int count followed by that many longs). The TopN options
+ * that only change how the files are read and what is reported - sample, frequent,
+ * quantiles, field and so on, see QUERY_OPTIONS - can be added too. Anything else is a
+ * 400. In particular nothing that writes files (output, rejects, index, checkpoint) is
+ * allowed, since a query could then write wherever the server can, and following doesn't
+ * make sense for a query.
+ *
+ * Every query's readers and workers run on one shared pool of threads that are kept
+ * alive between queries. Admission control keeps that pool from being swamped - each
+ * reader and worker needs a permit from a fair semaphore of maxThreads, a single query
+ * can use at most maxQueryThreads of them, and at most maxWaiting queries wait for
+ * permits before the rest are turned away with a 503. So a giant scan gets its share
+ * and no more, and the others queue behind it in order rather than starving.
+ *
+ * With a summary cache, it is shared by every query.
+ */
+public class TopNServer {
+
+	private static final int DEFAULT_WORKERS = 2;
+	private static final int DEFAULT_QUEUE_SIZE = 10000;
+	private static final int ADMISSION_TIMEOUT_SECS = 60;
+	private static final int IDLE_THREAD_SECS = 600;
+	private static final List<String> QUERY_PARAMETERS = Arrays.asList("file", "n", "workers", "queue", "format");
+	/**
+	 * TopN options a query may use, all read only.
+	 */
+	protected static final List<String> QUERY_OPTIONS = Arrays.asList("frequent", "frequent-counters", 
+			"quantiles", "sample", "read-ahead", "read-ahead-depth", "field", "delimiter", "striped",
+			"bad-lines", "max-bad-lines");
+
+	private final int port;
+	private final int maxThreads;
+	private final int maxQueryThreads;
+	private final int maxWaiting;
+
+	private final Semaphore threads;
+	private final AtomicInteger waiting = new AtomicInteger();
+	private final ThreadPoolExecutor pool;
+	private SummaryCache summaryCache;
+
+	private HttpServer server;
+	private ExecutorService requestExecutor;
+
+	public TopNServer(int port, int maxThreads, int maxQueryThreads, int maxWaiting) {
+		if(port < 0 || maxThreads <= 0 || maxQueryThreads <= 0 || maxQueryThreads > maxThreads || maxWaiting < 0) {
+			throw new IllegalArgumentException("Invalid server parameters");
+		}
+		this.port = port;
+		this.maxThreads = maxThreads;
+		this.maxQueryThreads = maxQueryThreads;
+		this.maxWaiting = maxWaiting;
+		this.threads = new Semaphore(maxThreads, true);
+		/** Admission control already bounds the threads in use, so the pool needn't */
+		this.pool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, IDLE_THREAD_SECS, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>());
+	}
+
+	public void useSummaryCache(SummaryCache cache) {
+		this.summaryCache = cache;
+	}
+
+	/**
+	 * Returns the port, which is handy when asking for port 0.
+	 */
+	public int start() throws Exception {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/topn", (exchange) -> {
+			handle(exchange);
+		});
+		requestExecutor = Executors.newCachedThreadPool();
+		server.setExecutor(requestExecutor);
+		server.start();
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Threads in the shared pool running a reader or worker right now.
+	 */
+	protected int activeThreads() {
+		return pool.getActiveCount();
+	}
+
+	public void stop() {
+		server.stop(0);
+		requestExecutor.shutdownNow();
+		pool.shutdownNow();
+	}
+
+	private void handle(HttpExchange exchange) {
+		try {
+			Map<String, List<String>> parameters = parse(exchange.getRequestURI().getRawQuery());
+			long start = System.currentTimeMillis();
+			TopN topN = query(parameters);
+			long millis = System.currentTimeMillis() - start;
+			long[] top = topN.getResult();
+			if("binary".equals(first(parameters, "format", "json"))) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				DataOutputStream out = new DataOutputStream(bytes);
+				out.writeInt(top.length);
+				for(long value : top) {
+					out.writeLong(value);
+				}
+				respond(exchange, 200, "application/octet-stream", bytes.toByteArray());
+			} else {
+				/** The N parsed, not as given - n=+5 or n=05 would not be valid JSON */
+				String json = "{\"n\":" + topN.getN() + ",\"files\":" + topN.fileCount()
+						+ ",\"millis\":" + millis
+						+ ",\"top\":[" + Longs.join(",", top) + "]}";
+				respond(exchange, 200, "application/json", json.getBytes("US-ASCII"));
+			}
+			System.out.println("Top-" + top.length + " of " + topN.fileCount() + " file(s) in " + millis + "ms");
+		} catch(IllegalArgumentException ex) {
+			error(exchange, 400, ex.getMessage());
+		} catch(ServerBusyException ex) {
+			error(exchange, 503, ex.getMessage());
+		} catch(Exception ex) {
+			ex.printStackTrace();
+			error(exchange, 500, ex.toString());
+		}
+	}
+
+	protected static class ServerBusyException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public ServerBusyException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * Runs the query once enough threads are free for it. Each file gets a reader.
+	 */
+	protected TopN query(Map<String, List<String>> parameters) throws Exception {
+		List<String> files = parameters.containsKey("file") ? parameters.get("file") : new ArrayList<>();
+		int N = Integer.parseInt(first(parameters, "n", "0"));
+		int workerCount = Integer.parseInt(first(parameters, "workers", Integer.toString(DEFAULT_WORKERS)));
+		int queueSize = Integer.parseInt(first(parameters, "queue", Integer.toString(DEFAULT_QUEUE_SIZE)));
+		Map<String, String> options = new HashMap<>();
+		for(Map.Entry<String, List<String>> parameter : parameters.entrySet()) {
+			String name = parameter.getKey();
+			if(QUERY_OPTIONS.contains(name)) {
+				options.put(name, parameter.getValue().get(0));
+			} else if(!QUERY_PARAMETERS.contains(name)) {
+				throw new IllegalArgumentException(name + " can't be used in a query");
+			}
+		}
+		TopN topN = new TopN(files, N, workerCount, queueSize);
+		TopN.configure(topN, options);
+		if(summaryCache!=null) {
+			topN.useSummaryCache(summaryCache, Math.max(N, 1000));
+		}
+		topN.runOn(pool);
+		topN.reportTo(new PrintStream(ByteStreams.nullOutputStream()));
+
+		int needed = workerCount + files.size();
+		if(needed > maxQueryThreads) {
+			throw new IllegalArgumentException("Query needs " + needed + " threads (workers plus a reader per file), at most "
+					+ maxQueryThreads + " allowed");
+		}
+		admit(needed);
+		try {
+			topN.execute();
+		} finally {
+			/** A query that failed part way would otherwise leave its threads in the pool */
+			topN.stop();
+			threads.release(needed);
+		}
+		return topN;
+	}
+
+	/**
+	 * A zero timeout rather than tryAcquire(needed), which would jump the queue.
+	 */
+	private void admit(int needed) throws InterruptedException {
+		if(threads.tryAcquire(needed, 0, TimeUnit.SECONDS)) { return; }
+		if(waiting.incrementAndGet() > maxWaiting) {
+			waiting.decrementAndGet();
+			throw new ServerBusyException("Too many queries waiting, try again later");
+		}
+		try {
+			if(!threads.tryAcquire(needed, ADMISSION_TIMEOUT_SECS, TimeUnit.SECONDS)) {
+				throw new ServerBusyException("Timed out waiting for " + needed + " of " + maxThreads + " threads");
+			}
+		} finally {
+			waiting.decrementAndGet();
+		}
+	}
+
+	private static Map<String, List<String>> parse(String query) throws Exception {
+		Map<String, List<String>> parameters = new HashMap<>();
+		if(query==null) { return parameters; }
+		for(String parameter : query.split("&")) {
+			if(parameter.isEmpty()) { continue; }
+			String[] nameAndValue = parameter.split("=", 2);
+			String name = URLDecoder.decode(nameAndValue[0], "UTF-8");
+			String value = nameAndValue.length > 1 ? URLDecoder.decode(nameAndValue[1], "UTF-8") : "";
+			parameters.computeIfAbsent(name, (key) -> new ArrayList<>()).add(value);
+		}
+		return parameters;
+	}
+
+	private static String first(Map<String, List<String>> parameters, String name, String otherwise) {
+		return parameters.containsKey(name) ? parameters.get(name).get(0) : otherwise;
+	}
+
+	private void error(HttpExchange exchange, int status, String message) {
+		String json = "{\"error\":\"" + String.valueOf(message).replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+		try {
+			respond(exchange, status, "application/json", json.getBytes("UTF-8"));
+		} catch(Exception ex) {
+			System.err.println("Could not respond " + ex);
+		}
+	}
+
+	private void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws Exception {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	public static void main(String argsv[]) throws Exception {
+		if(argsv.length<1) {
+			System.out.println("> java TopNServer <port> [--option=value ..]");
+			System.out.println("Options:");
+			System.out.println("  --threads=<t>            reader and worker threads shared by all queries, default 32");
+			System.out.println("  --query-threads=<q>      most threads a single query can use, default 16");
+			System.out.println("  --waiting=<w>            most queries waiting for threads before turning more away, default 64");
+			System.out.println("  --cache=<file>           summary cache shared by all queries");
+			System.out.println("  --cache-values=<v>       most values the cache holds, default 10000000");
+			System.exit(-1);
+		}
+		Map<String, String> options = new HashMap<>();
+		for(int i = 1; i < argsv.length; i++) {
+			String[] option = argsv[i].replaceFirst("^--", "").split("=", 2);
+			options.put(option[0], option.length > 1 ? option[1] : "");
+		}
+		TopNServer server = new TopNServer(Integer.parseInt(argsv[0]),
+				Integer.parseInt(options.getOrDefault("threads", "32")),
+				Integer.parseInt(options.getOrDefault("query-threads", "16")),
+				Integer.parseInt(options.getOrDefault("waiting", "64")));
+		if(options.containsKey("cache")) {
+			server.useSummaryCache(SummaryCache.open(options.get("cache"),
+					Long.parseLong(options.getOrDefault("cache-values", "10000000"))));
+		}
+		System.out.println("Answering top-N queries on port " + server.start());
+	}
+}
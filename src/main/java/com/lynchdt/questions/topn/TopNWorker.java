@@ -1,17 +1,51 @@
 package com.lynchdt.questions.topn;
 
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class TopNWorker implements Runnable {
 	private BoundedMinHeap heap;
+	/**
+	 * Only kept when the most frequent values have been asked for.
+	 */
+	private SpaceSavingSummary frequencies;
+	/**
+	 * Only kept when the distribution has been asked for.
+	 */
+	private QuantileSketch quantiles;
+	/**
+	 * Shared with the other workers when following files.
+	 */
+	private SlidingWindowTopN window;
+	/**
+	 * Raised whenever this worker's heap is full, so readers can drop values early.
+	 */
+	private SharedThreshold threshold;
+	/**
+	 * Only when every worker inserts into the one top-N, in place of a heap of its own.
+	 */
+	private ConcurrentTopN shared;
 	private final BlockingQueue<Long> workQueue;
 	private final int N;
 	private boolean done = false;
+	/**
+	 * Set once nothing more will be put on the queue. Nothing on the queue is special,
+	 * so any long read from a file is just a value.
+	 */
+	private volatile boolean endOfStream = false;
+	private CountDownLatch doneLatch;
+	/**
+	 * Values taken off the queue and fully applied. Only this worker writes it.
+	 */
+	private volatile long processed = 0;
 	
-	private int POLL_TIMEOUT_SECS = 1;
+	/**
+	 * Also how long a worker can sit on an empty queue after the end of the stream.
+	 */
+	private int POLL_TIMEOUT_MILLIS = 10;
 	
 	private AtomicBoolean running = new AtomicBoolean(true);
 	
@@ -26,6 +60,47 @@ public class TopNWorker implements Runnable {
 		heap = new BoundedMinHeap(N);
 		this.workQueue = workQueue;
 	}
+	
+	/**
+	 * Also track the most frequent values seen, using a fixed number of counters.
+	 */
+	public void trackFrequencies(int counters) {
+		frequencies = new SpaceSavingSummary(counters);
+	}
+	
+	/**
+	 * Also sketch the distribution of the values seen.
+	 */
+	public void trackQuantiles(int k) {
+		quantiles = new QuantileSketch(k);
+	}
+	
+	/**
+	 * Also feed every value into a sliding window.
+	 */
+	public void feedWindow(SlidingWindowTopN window) {
+		this.window = window;
+	}
+	
+	/**
+	 * A full heap holds N values at or above its minimum, so that minimum is a safe
+	 * lower bound on the final N-th largest value.
+	 */
+	public void publishThresholdTo(SharedThreshold threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Insert straight into a top-N shared with the other workers, rather than into
+	 * a heap of this worker's own that has to be merged.
+	 */
+	public void insertInto(ConcurrentTopN shared) {
+		this.shared = shared;
+	}
+
+	public void countDownWhenDone(CountDownLatch doneLatch) {
+		this.doneLatch = doneLatch;
+	}
 
 	@Override
 	public void run() {
@@ -38,6 +113,9 @@ public class TopNWorker implements Runnable {
 		}
 		finally {
 			this.done=true;
+			if(doneLatch!=null) {
+				doneLatch.countDown();
+			}
 		}
 	}
 	
@@ -45,12 +123,37 @@ public class TopNWorker implements Runnable {
 		try {
 			/**
 			 * Timeout the poll periodically, giving this thread a chance 
-			 * to check if it should no longer be looking for work.
+			 * to check if it should no longer be looking for work. The flag
+			 * is read first - once it's set every value has been put, so an
+			 * empty poll after that means the queue is empty for good.
 			 */
-			Long work = workQueue.poll(POLL_TIMEOUT_SECS, TimeUnit.SECONDS);
-			if(work!=null) {
+			boolean ended = endOfStream;
+			Long work = workQueue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+			if(work==null) {
+				if(ended) {
+					finish();
+				}
+			} else {
 				acquireWriteLockOnHeap();
-				heap.insert(work);
+				if(shared!=null) {
+					shared.insert(work);
+				} else {
+					heap.insert(work);
+					if(threshold!=null && heap.isFull()) {
+						threshold.raiseTo(heap.getMinimum());
+					}
+				}
+				if(frequencies!=null) {
+					frequencies.offer(work);
+				}
+				if(quantiles!=null) {
+					quantiles.update(work);
+				}
+				releaseWriteLockOnHeap();
+				if(window!=null) {
+					window.insert(work);
+				}
+				processed++;
 			}
 		}
 		catch(InterruptedException ex) { 
@@ -80,6 +183,35 @@ public class TopNWorker implements Runnable {
 		}
 	}
 	
+	/**
+	 * As applyToHeap, for the frequency summary. Summaries of disjoint parts of the
+	 * stream merge cleanly, so starting afresh after each merge is fine here too.
+	 */
+	public void applyToSummary(SpaceSavingSummary overallFrequencies) {
+		if(frequencies==null) { return; }
+		acquireWriteLockOnHeap();
+		try {
+			overallFrequencies.merge(frequencies);
+			frequencies.clear();
+		} finally {
+			releaseWriteLockOnHeap();
+		}
+	}
+	
+	/**
+	 * As applyToHeap, for the quantile sketch.
+	 */
+	public void applyToSketch(QuantileSketch overallQuantiles) {
+		if(quantiles==null) { return; }
+		acquireWriteLockOnHeap();
+		try {
+			overallQuantiles.merge(quantiles);
+			quantiles.clear();
+		} finally {
+			releaseWriteLockOnHeap();
+		}
+	}
+	
 	public void acquireWriteLockOnHeap() {
 		modificationLock.lock(); /** Suspend processing when ready */
 	}
@@ -93,6 +225,17 @@ public class TopNWorker implements Runnable {
 		running.getAndSet(false);
 	}
 	
+	/**
+	 * Nothing more will be queued, so finish once the queue is empty.
+	 */
+	public void endOfStream() {
+		this.endOfStream = true;
+	}
+	
+	public long getProcessed() {
+		return processed;
+	}
+	
 	public boolean isDone() {
 		return this.done;
 	}
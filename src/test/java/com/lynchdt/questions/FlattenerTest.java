@@ -1,10 +1,19 @@
 package com.lynchdt.questions;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Ignore;
 import org.junit.Rule;
@@ -12,6 +21,7 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
 
 public class FlattenerTest {
 	
@@ -152,25 +162,327 @@ public class FlattenerTest {
 	}
 	
 	@Test
-	public void getFlattenedUsingRecursion_selfReference_overflowsStack() {
-		Flattener flattener = new Flattener(selfReference());
+	public void getFlattenedAsArray_givenSimpleList_flattensInOrder() {
+		Flattener flattener = new Flattener(questionList());
 		
-		thrown.expect(StackOverflowError.class);
-		flattener.getFlattenedByRecursion();
+		int[] flattened = flattener.getFlattenedAsArray();
+		
+		assertEquals(QUESTION_TEST_RESULT, Arrays.toString(flattened));
+	}
+	
+	@Test
+	public void getFlattenedAsArray_givenOtherList_flattensInOrder() {
+		Flattener flattener = new Flattener(otherList());
+		
+		int[] flattened = flattener.getFlattenedAsArray();
+		
+		assertEquals(OTHER_TEST_RESULT, Arrays.toString(flattened));
 	}
 	
 	@Test
 	/**
-	 * Not a unit test - this will go on for a while before unpredictable things
-	 * happen. Commenting out @Ignore will exhaust your heap at least. 
+	 * LinkedList isn't RandomAccess, so is walked with an Iterator. Deeper than the
+	 * cursor stack starts out too.
 	 */
-	@Ignore
-	public void getFlattenedUsingRecursion_selfReference_exhaustsHeap() {
+	public void getFlattenedAsArray_givenDeepLinkedLists_flattensInOrder() {
+		List<Object> root = new LinkedList<>();
+		List<Object> level = root;
+		for(int i = 0; i < 100; i++) {
+			level.add(i);
+			List<Object> deeper = new LinkedList<>();
+			level.add(deeper);
+			level = deeper;
+		}
+		
+		int[] flattened = new Flattener(root).getFlattenedAsArray();
+		
+		assertEquals(100, flattened.length);
+		assertEquals(99, flattened[99]);
+	}
+	
+	@Test
+	public void getFlattenedAsArray_givenEmptyLists_returnsEmpty() {
+		Flattener flattener = new Flattener(ImmutableList.of(ImmutableList.of(), ImmutableList.of(ImmutableList.of())));
+		
+		assertEquals(0, flattener.getFlattenedAsArray().length);
+	}
+	
+	@Test
+	public void getFlattenedAsArray_givenUnsupportedType_throws() {
+		Flattener flattener = new Flattener(ImmutableList.of(1, "String"));
+		
+		thrown.expect(UnsupportedOperationException.class);
+		flattener.getFlattenedAsArray();
+	}
+	
+	@Test
+	/**
+	 * The same ten million as above, quickly enough to run every time.
+	 */
+	public void getFlattenedAsArray_givenLargeList_flattensInOrder() {
+		Flattener flattener = new Flattener(justIntegers(ONE_MILLION_DOLLARS));
+		
+		int[] flattened = flattener.getFlattenedAsArray();
+		
+		assertEquals(ONE_MILLION_DOLLARS, flattened.length);
+		assertEquals(ONE_MILLION_DOLLARS - 1, flattened[ONE_MILLION_DOLLARS - 1]);
+	}
+	
+	@Test
+	public void getFlattenedLazily_givenOtherList_iteratesInOrder() {
+		PrimitiveIterator.OfInt iterator = new Flattener(otherList()).getFlattenedLazily();
+		List<Integer> flattened = new ArrayList<>();
+		
+		iterator.forEachRemaining((int value) -> flattened.add(value));
+		
+		assertEquals(OTHER_TEST_RESULT, flattened.toString());
+		assertFalse(iterator.hasNext());
+	}
+	
+	@Test
+	public void getFlattenedLazily_pastTheEnd_throws() {
+		PrimitiveIterator.OfInt iterator = new Flattener(ImmutableList.of(ImmutableList.of(), 1)).getFlattenedLazily();
+		
+		assertEquals(1, iterator.nextInt());
+		thrown.expect(NoSuchElementException.class);
+		iterator.nextInt();
+	}
+	
+	@Test
+	/**
+	 * Laziness means the bad element is never reached.
+	 */
+	public void getFlattenedAsStream_shortCircuited_stopsBeforeTheRest() {
+		Flattener flattener = new Flattener(ImmutableList.of(ImmutableList.of(7, 8), "String"));
+		
+		assertEquals(7, flattener.getFlattenedAsStream().findFirst().getAsInt());
+		assertTrue(flattener.getFlattenedAsStream().anyMatch((value) -> value == 8));
+	}
+	
+	@Test
+	public void getFlattenedAsStream_walkedToTheEnd_throwsForUnsupportedType() {
+		Flattener flattener = new Flattener(ImmutableList.of(ImmutableList.of(7, 8), "String"));
+		
+		thrown.expect(UnsupportedOperationException.class);
+		flattener.getFlattenedAsStream().sum();
+	}
+	
+	@Test
+	/**
+	 * A prefix of the ten million, without the other 9,999,995 being looked at.
+	 */
+	public void getFlattenedAsStream_givenLargeList_takesPrefix() {
+		Flattener flattener = new Flattener(justIntegers(ONE_MILLION_DOLLARS));
+		
+		assertEquals("[0, 1, 2, 3, 4]", Arrays.toString(flattener.getFlattenedAsStream().limit(5).toArray()));
+		assertEquals((long) ONE_MILLION_DOLLARS * (ONE_MILLION_DOLLARS - 1) / 2, 
+				flattener.getFlattenedAsStream().asLongStream().sum());
+	}
+	
+	@Test
+	public void getFlattenedInParallel_givenSmallLists_flattensInOrder() {
+		assertEquals(QUESTION_TEST_RESULT, Arrays.toString(new Flattener(questionList()).getFlattenedInParallel()));
+		assertEquals(OTHER_TEST_RESULT, Arrays.toString(new Flattener(otherList()).getFlattenedInParallel()));
+	}
+	
+	@Test
+	/**
+	 * Wide at the top, with big and small sublists (some not RandomAccess) all over,
+	 * so there are split ranges, nested Segments and sequential walks.
+	 */
+	public void getFlattenedInParallel_givenWideNestedLists_matchesSequential() {
+		Random random = new Random(3);
+		List<Object> root = new ArrayList<>();
+		int next = 0;
+		for(int i = 0; i < 50000; i++) {
+			int kind = random.nextInt(100);
+			if(kind < 1) {
+				List<Object> big = kind == 0 && i % 2 == 0 ? new LinkedList<>() : new ArrayList<>();
+				for(int j = random.nextInt(3 * Flattener.PARALLEL_THRESHOLD); j > 0; j--) {
+					big.add(random.nextInt(10) == 0 ? ImmutableList.of(next++, ImmutableList.of(next++)) : next++);
+				}
+				root.add(big);
+			} else if(kind < 10) {
+				root.add(ImmutableList.of(next++, ImmutableList.of(), next++));
+			} else {
+				root.add(next++);
+			}
+		}
+		Flattener flattener = new Flattener(root);
+		
+		int[] flattened = flattener.getFlattenedInParallel(new ForkJoinPool(4));
+		
+		assertEquals(next, flattened.length);
+		assertArrayEquals(flattener.getFlattenedAsArray(), flattened);
+	}
+	
+	@Test
+	public void getFlattenedInParallel_givenLargeList_flattensInOrder() {
+		Flattener flattener = new Flattener(justIntegers(ONE_MILLION_DOLLARS));
+		
+		int[] flattened = flattener.getFlattenedInParallel();
+		
+		assertEquals(ONE_MILLION_DOLLARS, flattened.length);
+		assertEquals(ONE_MILLION_DOLLARS - 1, flattened[ONE_MILLION_DOLLARS - 1]);
+	}
+	
+	@Test
+	public void getFlattenedInParallel_givenUnsupportedType_throws() {
+		List<Object> list = justIntegers(3 * Flattener.PARALLEL_THRESHOLD);
+		list.add(ImmutableList.of(1, 2.0));
+		Flattener flattener = new Flattener(list);
+		
+		thrown.expect(UnsupportedOperationException.class);
+		flattener.getFlattenedInParallel();
+	}
+	
+	@Test
+	public void getFlattenedUsingRecursion_selfReference_throwsCyclicNesting() {
+		Flattener flattener = new Flattener(selfReference());
+		
+		thrown.expect(Flattener.CyclicNestingException.class);
+		flattener.getFlattenedByRecursion();
+	}
+	
+	@Test
+	public void getFlattenedUsingStack_selfReference_throwsCyclicNesting() {
 		Flattener flattener = new Flattener(selfReference());
 
+		thrown.expect(Flattener.CyclicNestingException.class);
 		flattener.getFlattenedUsingStack();
 	}
 	
+	@Test
+	public void getFlattenedAsArray_indirectSelfReference_throwsCyclicNesting() {
+		Flattener flattener = new Flattener(indirectSelfReference());
+
+		thrown.expect(Flattener.CyclicNestingException.class);
+		flattener.getFlattenedAsArray();
+	}
+	
+	@Test
+	public void getFlattenedLazily_selfReference_givesIntegersUntilCycleFound() {
+		PrimitiveIterator.OfInt iterator = new Flattener(selfReference()).getFlattenedLazily();
+		assertEquals(1, iterator.nextInt());
+		assertEquals(2, iterator.nextInt());
+		assertEquals(1, iterator.nextInt());
+
+		thrown.expect(Flattener.CyclicNestingException.class);
+		while(iterator.hasNext()) {
+			iterator.nextInt();
+		}
+	}
+	
+	@Test
+	public void getFlattenedInParallel_selfReference_throwsCyclicNesting() {
+		Flattener flattener = new Flattener(selfReference());
+
+		thrown.expect(Flattener.CyclicNestingException.class);
+		flattener.getFlattenedInParallel();
+	}
+	
+	@Test
+	public void getFlattenedInParallel_bigListContainingItself_throwsCyclicNesting() {
+		List<Object> big = justIntegers(2 * Flattener.PARALLEL_THRESHOLD);
+		big.add(ImmutableList.of(1, justIntegers(10), big));
+		big.add(big);
+		Flattener flattener = new Flattener(big);
+
+		thrown.expect(Flattener.CyclicNestingException.class);
+		flattener.getFlattenedInParallel();
+	}
+	
+	@Test
+	public void getFlattened_sameListTwiceAndDeepNesting_notACycle() {
+		List<Object> shared = ImmutableList.of(1, 2);
+		List<Object> deep = ImmutableList.of(shared, shared);
+		for(int i = 0; i < 3 * Flattener.CYCLE_CHECK_DEPTH; i++) {
+			deep = ImmutableList.of(shared, deep, shared);
+		}
+		Flattener flattener = new Flattener(deep);
+		int[] expected = flattener.getFlattenedAsArray();
+		
+		assertEquals(4 * (3 * Flattener.CYCLE_CHECK_DEPTH) + 4, expected.length);
+		assertEquals(Ints.asList(expected), flattener.getFlattenedByRecursion());
+		assertEquals(Ints.asList(expected), flattener.getFlattenedUsingStack());
+		assertArrayEquals(expected, flattener.getFlattenedAsStream().toArray());
+		assertArrayEquals(expected, flattener.getFlattenedInParallel());
+	}
+	
+	@Test
+	public void limitDepth_atTheDepth_flattens() {
+		Flattener flattener = new Flattener(otherList());
+		flattener.limitDepth(5);
+		
+		assertEquals(OTHER_TEST_RESULT, flattener.getFlattenedUsingStack().toString());
+		assertEquals(OTHER_TEST_RESULT, Arrays.toString(flattener.getFlattenedAsArray()));
+	}
+	
+	@Test
+	public void limitDepth_deeperThanThat_throws() {
+		Flattener flattener = new Flattener(otherList());
+		flattener.limitDepth(4);
+		
+		for(Runnable variant : variants(flattener)) {
+			try {
+				variant.run();
+				fail("Nested 5 deep, but flattened with a limit of 4");
+			} catch(Flattener.LimitExceededException expected) {
+				assertEquals("Lists are nested more than 4 deep", expected.getMessage());
+			}
+		}
+	}
+	
+	@Test
+	public void limitSize_moreIntegersThanThat_throws() {
+		Flattener flattener = new Flattener(otherList());
+		flattener.limitSize(10);
+		
+		for(Runnable variant : variants(flattener)) {
+			try {
+				variant.run();
+				fail("11 integers, but flattened with a limit of 10");
+			} catch(Flattener.LimitExceededException expected) {
+				assertEquals("More than 10 integers to flatten", expected.getMessage());
+			}
+		}
+	}
+	
+	@Test
+	public void limitSize_exactlyThatMany_flattens() {
+		Flattener flattener = new Flattener(justIntegers(1000));
+		flattener.limitSize(1000);
+		
+		assertEquals(1000, flattener.getFlattenedAsArray().length);
+		assertEquals(1000, flattener.getFlattenedUsingStack().size());
+		assertEquals(1000, flattener.getFlattenedAsStream().count());
+		assertEquals(1000, flattener.getFlattenedInParallel().length);
+	}
+	
+	@Test
+	public void limitSize_selfReference_stopsWhicheverComesFirst() {
+		Flattener flattener = new Flattener(selfReference());
+		flattener.limitSize(5);
+		
+		thrown.expect(Flattener.LimitExceededException.class);
+		flattener.getFlattenedAsArray();
+	}
+	
+	@Test
+	public void limitDepth_zero_throws() {
+		thrown.expect(IllegalArgumentException.class);
+		new Flattener(questionList()).limitDepth(0);
+	}
+	
+	private List<Runnable> variants(Flattener flattener) {
+		return ImmutableList.of(
+				flattener::getFlattenedByRecursion,
+				flattener::getFlattenedUsingStack,
+				flattener::getFlattenedAsArray,
+				() -> flattener.getFlattenedAsStream().toArray(),
+				flattener::getFlattenedInParallel);
+	}
+	
 	
 	public List<Object> selfReference() {
 		List<Object> root = new ArrayList<>();
@@ -180,6 +492,16 @@ public class FlattenerTest {
 		return root;
 	}
 
+	public List<Object> indirectSelfReference() {
+		List<Object> root = new ArrayList<>();
+		List<Object> inner = new LinkedList<>();
+		root.add(1);
+		root.add(ImmutableList.of(2, inner));
+		inner.add(3);
+		inner.add(ImmutableList.of(root));
+		return root;
+	}
+
 	public List<Object> questionList() {
 		return ImmutableList.of(
 					ImmutableList.of(1, 2, 
@@ -0,0 +1,206 @@
+package com.lynchdt.questions;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+
+public class TextFlattenerTest {
+
+	@Rule public final TemporaryFolder folder = new TemporaryFolder();
+	@Rule public final ExpectedException thrown = ExpectedException.none();
+
+	private TextFlattener of(String text) throws Exception {
+		return new TextFlattener(Channels.newChannel(new ByteArrayInputStream(text.getBytes("US-ASCII"))));
+	}
+
+	/**
+	 * A channel that only gives a byte or two at a time, so that numbers and whitespace are
+	 * split across every possible buffer boundary.
+	 */
+	private TextFlattener trickling(String text) throws Exception {
+		InputStream in = new ByteArrayInputStream(text.getBytes("US-ASCII")) {
+			@Override
+			public synchronized int read(byte[] bytes, int offset, int length) {
+				return super.read(bytes, offset, Math.min(length, 2));
+			}
+		};
+		return new TextFlattener(Channels.newChannel(in));
+	}
+
+	private long offsetOfError(String text) throws Exception {
+		try {
+			of(text).getFlattenedAsArray();
+		} catch(TextFlattener.MalformedArrayException expected) {
+			return expected.getOffset();
+		}
+		fail("Flattened malformed " + text);
+		return -1;
+	}
+
+	@Test
+	public void getFlattenedAsArray_givenQuestionText_flattensInOrder() throws Exception {
+		assertEquals("[1, 2, 3, 4]", Arrays.toString(of("[[1,2,[3]],4]").getFlattenedAsArray()));
+		assertEquals("[1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11]", 
+				Arrays.toString(of("[[1,2,[3,4,[5,6,7,8,[9,10]]]],11]").getFlattenedAsArray()));
+	}
+
+	@Test
+	public void getFlattenedAsArray_whitespaceEmptyListsAndSigns_flattens() throws Exception {
+		String text = " [ [] ,\n\t[ -1 , [[ ]], 0 ],2147483647,-2147483648 ]\r\n";
+
+		assertEquals("[-1, 0, 2147483647, -2147483648]", Arrays.toString(of(text).getFlattenedAsArray()));
+		assertEquals("[-1, 0, 2147483647, -2147483648]", Arrays.toString(trickling(text).getFlattenedAsArray()));
+		assertEquals(0, of("[]").getFlattenedAsArray().length);
+	}
+
+	@Test
+	public void flattenTo_randomNesting_matchesFlattener() throws Exception {
+		Random random = new Random(5);
+		StringBuilder text = new StringBuilder();
+		Object nested = randomNesting(random, 0, text);
+		int[] expected = new Flattener(ImmutableList.of(nested)).getFlattenedAsArray();
+		text.insert(0, '[').append(']');
+
+		int[] sunk = new int[expected.length];
+		int[] count = new int[1];
+		long flattened = trickling(text.toString()).flattenTo((value) -> sunk[count[0]++] = value);
+
+		assertEquals(expected.length, flattened);
+		assertArrayEquals(expected, sunk);
+		assertArrayEquals(expected, of(text.toString()).getFlattenedAsStream().toArray());
+	}
+
+	private Object randomNesting(Random random, int depth, StringBuilder text) {
+		if(depth > 6 || random.nextInt(3) > 0) {
+			int value = random.nextInt();
+			text.append(value);
+			return value;
+		}
+		ImmutableList.Builder<Object> list = ImmutableList.builder();
+		text.append('[');
+		for(int i = random.nextInt(8); i > 0; i--) {
+			list.add(randomNesting(random, depth + 1, text));
+			text.append(i > 1 ? ", " : "");
+		}
+		text.append(']');
+		return list.build();
+	}
+
+	@Test
+	public void getFlattenedLazily_malformedLater_givesIntegersBeforeIt() throws Exception {
+		PrimitiveIterator.OfInt iterator = of("[1,[2]],3]").getFlattenedLazily();
+		assertEquals(1, iterator.nextInt());
+		assertEquals(2, iterator.nextInt());
+
+		thrown.expect(TextFlattener.MalformedArrayException.class);
+		thrown.expectMessage("after the outermost ] at byte 7");
+		iterator.hasNext();
+	}
+
+	@Test
+	public void getFlattenedAsStream_limited_stopsReading() throws Exception {
+		/** Malformed after the first three, but they're all that are asked for */
+		assertArrayEquals(new int[] {1, 2, 3}, of("[1,[2,3],4 5]").getFlattenedAsStream().limit(3).toArray());
+	}
+
+	@Test
+	public void getFlattenedAsArray_bracketMismatches_reportOffsets() throws Exception {
+		assertEquals(5, offsetOfError("[1,2]]"));
+		assertEquals(3, offsetOfError("[1,[2,[3]"));
+		assertEquals(0, offsetOfError("[[1]"));
+		assertEquals(4, offsetOfError("[1, ]"));
+		assertEquals(1, offsetOfError("[,1]"));
+		assertEquals(3, offsetOfError("[1 2]"));
+		assertEquals(2, offsetOfError("[1[2]]"));
+		assertEquals(1, offsetOfError("[a]"));
+		assertEquals(2, offsetOfError("[-]"));
+		assertEquals(0, offsetOfError("1"));
+	}
+
+	@Test
+	public void getFlattenedAsArray_unclosed_messageNamesTheBracket() throws Exception {
+		thrown.expect(TextFlattener.MalformedArrayException.class);
+		thrown.expectMessage("[ never closed at byte 4");
+
+		of("[1, [2, [3]").getFlattenedAsArray();
+	}
+
+	@Test
+	public void getFlattenedAsArray_tooBigForAnInt_throws() throws Exception {
+		thrown.expect(TextFlattener.MalformedArrayException.class);
+		thrown.expectMessage("Number too big for an int at byte 3");
+
+		of("[1,2147483648]").getFlattenedAsArray();
+	}
+
+	@Test
+	public void getFlattenedAsArray_empty_throws() throws Exception {
+		thrown.expect(TextFlattener.MalformedArrayException.class);
+		thrown.expectMessage("No nested array to flatten");
+
+		of("  ").getFlattenedAsArray();
+	}
+
+	@Test
+	public void getFlattenedAsArray_readTwice_throws() throws Exception {
+		TextFlattener flattener = of("[1]");
+		flattener.getFlattenedAsArray();
+
+		thrown.expect(IllegalStateException.class);
+		flattener.getFlattenedAsArray();
+	}
+
+	@Test
+	public void ofMappedFile_largeFile_flattensInOrder() throws Exception {
+		File file = folder.newFile();
+		int count = 1000000;
+		try (PrintWriter writer = new PrintWriter(file)) {
+			writer.print('[');
+			for(int i = 0; i < count; i++) {
+				writer.print(i % 3 == 0 ? "[" + i + "]," : i + ",");
+			}
+			writer.print("[[]]]");
+		}
+
+		int[] flattened;
+		try (TextFlattener flattener = TextFlattener.ofMappedFile(file.toPath())) {
+			flattened = flattener.getFlattenedAsArray();
+		}
+
+		assertEquals(count, flattened.length);
+		for(int i = 0; i < count; i++) {
+			assertEquals(i, flattened[i]);
+		}
+	}
+
+	@Test
+	public void flattenTo_channelFails_throwsIOException() throws Exception {
+		InputStream failing = new InputStream() {
+			@Override
+			public int read() throws IOException {
+				throw new IOException("disk on fire");
+			}
+		};
+
+		thrown.expect(IOException.class);
+		thrown.expectMessage("disk on fire");
+		new TextFlattener(Channels.newChannel(failing)).flattenTo((value) -> {});
+	}
+}
@@ -0,0 +1,51 @@
+package com.lynchdt.questions.topn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BatchFilterTest {
+
+	@Test public void keepAtLeast_keepsEqualAndAboveInOrder() {
+		long[] values = {5, 1, 9, 5, 4, 7};
+
+		int kept = BatchFilter.keepAtLeast(values, values.length, 5);
+
+		assertEquals(4, kept);
+		assertArrayEquals(new long[] {5, 9, 5, 7}, Arrays.copyOf(values, kept));
+	}
+
+	@Test public void keepAtLeast_onlyLooksAtCount() {
+		long[] values = {1, 8, 9};
+
+		assertEquals(1, BatchFilter.keepAtLeast(values, 2, 5));
+		assertEquals(9, values[2]);
+	}
+
+	@Test public void keepAtLeast_extremeThresholds() {
+		long[] values = {Long.MIN_VALUE, 0, Long.MAX_VALUE};
+
+		assertEquals(3, BatchFilter.keepAtLeast(values.clone(), 3, Long.MIN_VALUE));
+		assertEquals(1, BatchFilter.keepAtLeast(values.clone(), 3, Long.MAX_VALUE));
+	}
+
+	@Test public void keepAtLeast_randomBatches_matchesFilteringOneAtATime() {
+		Random random = new Random(11);
+		for(int round = 0; round < 1000; round++) {
+			long[] values = new long[random.nextInt(300)];
+			for(int i = 0; i < values.length; i++) {
+				values[i] = random.nextInt(100) - 50;
+			}
+			long threshold = random.nextInt(120) - 60;
+			long[] expected = Arrays.stream(values).filter((value) -> value >= threshold).toArray();
+
+			int kept = BatchFilter.keepAtLeast(values, values.length, threshold);
+
+			assertArrayEquals(expected, Arrays.copyOf(values, kept));
+		}
+	}
+}
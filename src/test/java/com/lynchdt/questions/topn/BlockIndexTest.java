@@ -0,0 +1,98 @@
+package com.lynchdt.questions.topn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+
+public class BlockIndexTest {
+
+	@Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+	private File numbers(String contents) throws Exception {
+		File file = folder.newFile("numbers.txt");
+		try (PrintWriter writer = new PrintWriter(file)) {
+			writer.print(contents);
+		}
+		return file;
+	}
+
+	@Test public void build_givenLines_closesBlocksOnLineBoundaries() throws Exception {
+		File file = numbers("10\n20\n30\n5\n");
+		BlockIndex.Builder builder = new BlockIndex.Builder(5);
+		builder.add(0, 10);
+		builder.add(3, 20);
+		builder.add(6, 30);
+		builder.add(9, 5);
+
+		List<BlockIndex.Block> blocks = builder.build(file).getBlocks();
+
+		assertEquals(2, blocks.size());
+		assertEquals(6, blocks.get(0).getEnd());
+		assertEquals(20, blocks.get(0).getMax());
+		assertEquals(6, blocks.get(1).getStart());
+		assertEquals(11, blocks.get(1).getEnd());
+		assertEquals(5, blocks.get(1).getMin());
+		assertEquals(2, blocks.get(1).getCount());
+	}
+
+	@Test public void readingPlan_ordersByMaximumDescending() {
+		BlockIndex index = new BlockIndex(0, 0, 1, ImmutableList.of(
+				new BlockIndex.Block(0, 1, 1, 5, 2), new BlockIndex.Block(1, 2, 2, 9, 2)));
+
+		assertEquals(9, index.readingPlan().get(0).getMax());
+	}
+
+	@Test public void threshold_enoughValuesAboveBlockMinimums_returnsLastMinimum() {
+		BlockIndex index = new BlockIndex(0, 0, 1, ImmutableList.of(
+				new BlockIndex.Block(0, 1, 100, 200, 3),
+				new BlockIndex.Block(1, 2, 50, 300, 3),
+				new BlockIndex.Block(2, 3, 1, 10, 3)));
+
+		assertEquals(100, BlockIndex.threshold(ImmutableList.of(index), 3));
+		assertEquals(50, BlockIndex.threshold(ImmutableList.of(index), 4));
+		assertEquals(Long.MIN_VALUE, BlockIndex.threshold(ImmutableList.of(index), 10));
+	}
+
+	@Test public void load_afterFileChanged_returnsNull() throws Exception {
+		File file = numbers("1\n2\n");
+		BlockIndex.Builder builder = new BlockIndex.Builder(1024);
+		builder.add(0, 1);
+		builder.add(2, 2);
+		builder.build(file).save(file.getPath());
+
+		assertNotNull(BlockIndex.load(file.getPath()));
+
+		try (PrintWriter writer = new PrintWriter(file)) {
+			writer.print("1\n2\n3\n");
+		}
+
+		assertNull(BlockIndex.load(file.getPath()));
+	}
+
+	@Test public void execute_withIndexOnSortedFile_skipsBlocksAndStaysExact() throws Exception {
+		StringBuilder contents = new StringBuilder();
+		for(int i = 1; i <= 10000; i++) {
+			contents.append(i).append('\n');
+		}
+		File file = numbers(contents.toString());
+		TopN first = new TopN(ImmutableList.of(file.getPath()), 3, 1, 100);
+		first.useBlockIndexes(256);
+		first.execute();
+
+		TopN second = new TopN(ImmutableList.of(file.getPath()), 3, 1, 100);
+		second.useBlockIndexes(256);
+		second.execute();
+
+		assertEquals("[10000, 9999, 9998]", second.getHeap().toString());
+	}
+}
@@ -4,6 +4,12 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -48,12 +54,115 @@ public class BoundedMinHeapTest {
 		});
 	}
 	
+	@Test public void insert_smallerThanMinimumBeforeFull_keepsIt() {
+		heap = new BoundedMinHeap(3);
+		Lists.newArrayList(10L, 9L, 8L, 7L).forEach((element) -> {
+			heap.insert(element);
+		});
+		
+		assertEquals("[10, 9, 8]", heap.toSortedList().toString());
+	}
+	
+	@Test public void insert_duplicates_keepsOneEntryPerValue() {
+		heap = new BoundedMinHeap(1000);
+		for(int i = 0; i < 1000; i++) {
+			heap.insert(i % 2 == 0 ? Long.MAX_VALUE : 3L);
+		}
+		
+		assertEquals(2, heap.distinct());
+		assertEquals(1000, heap.getSize());
+		assertTrue(heap.isFull());
+		assertEquals(3L, heap.getMinimum());
+	}
+	
+	@Test public void insert_whenFullOfDuplicates_evictsOneCopyAtATime() {
+		heap = new BoundedMinHeap(3);
+		Lists.newArrayList(5L, 5L, 5L, 7L).forEach((element) -> {
+			heap.insert(element);
+		});
+		
+		assertEquals("[7, 5, 5]", heap.toSortedList().toString());
+	}
+	
+	@Test public void merge_countedEntries_keepsTopN() {
+		BoundedMinHeap other = new BoundedMinHeap(4);
+		heap = new BoundedMinHeap(5);
+		Lists.newArrayList(9L, 9L, 9L, 1L, 1L).forEach((element) -> {
+			heap.insert(element);
+		});
+		other.insert(4L);
+		other.insert(9L);
+		
+		heap.merge(other);
+		
+		assertEquals("[9, 9, 9, 9]", other.toSortedList().toString());
+	}
+	
+	@Test public void insert_randomValuesWithDuplicates_matchesSorting() {
+		Random random = new Random(5);
+		for(int round = 0; round < 200; round++) {
+			int maxSize = 1 + random.nextInt(20);
+			heap = new BoundedMinHeap(maxSize);
+			List<Long> values = new ArrayList<>();
+			for(int i = random.nextInt(100); i > 0; i--) {
+				long value = random.nextInt(10);
+				values.add(value);
+				heap.insert(value);
+				assertTrue(heap.getSize() == 0 || heap.verifyHeapProperty());
+			}
+			values.sort(Collections.reverseOrder());
+			
+			assertEquals(values.subList(0, Math.min(maxSize, values.size())), heap.toSortedList());
+		}
+	}
+	
+	@Test public void insert_randomCopiesWithEvictions_keepsCountsWithTheirValues() {
+		Random random = new Random(11);
+		for(int round = 0; round < 200; round++) {
+			int maxSize = 1 + random.nextInt(20);
+			heap = new BoundedMinHeap(maxSize);
+			List<Long> values = new ArrayList<>();
+			for(int i = random.nextInt(50); i > 0; i--) {
+				long value = random.nextInt(10);
+				int copies = 1 + random.nextInt(4);
+				for(int copy = 0; copy < copies; copy++) {
+					values.add(value);
+				}
+				heap.insert(value, copies);
+			}
+			values.sort(Collections.reverseOrder());
+			List<Long> expected = values.subList(0, Math.min(maxSize, values.size()));
+
+			assertEquals(expected, heap.toSortedList());
+			assertEquals(expected.toString(), Arrays.toString(heap.sortDescending()));
+		}
+	}
+
+	@Test public void sortDescending_withDuplicates_expandsHighestFirst() {
+		heap = new BoundedMinHeap(6);
+		Lists.newArrayList(3L, 8L, 3L, 1L, 8L, 8L).forEach((element) -> {
+			heap.insert(element);
+		});
+		
+		assertEquals("[8, 8, 8, 3, 3, 1]", Arrays.toString(heap.sortDescending()));
+		assertEquals("[8, 8, 8, 3, 3, 1]", heap.toString());
+	}
+	
+	@Test public void summary_givesCountAndRange() {
+		heap = new BoundedMinHeap(4);
+		Lists.newArrayList(5L, 2L, 9L, 2L).forEach((element) -> {
+			heap.insert(element);
+		});
+		
+		assertEquals("4 value(s) from 2 to 9", heap.summary());
+	}
+	
 	@Test public void parent_givenPosition_returnsMid() {
-		/** Needs to be the floor if indivisible by 2 */
+		/** Needs to be the floor if indivisible by 2. Position 8 is the right child of 3 (2*3+2) */
 		int uneven = 5;
 		int expectedUnevenResult = 2;
 		int even = 8;
-		int expectedEvenResult = 4;
+		int expectedEvenResult = 3;
 		
 		int unevenResult = heap.parent(uneven);
 		int evenResult = heap.parent(even);
@@ -0,0 +1,140 @@
+package com.lynchdt.questions.topn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+
+public class CheckpointTest {
+
+	@Rule public final TemporaryFolder folder = new TemporaryFolder();
+	@Rule public final ExpectedException thrown = ExpectedException.none();
+
+	@Test public void load_noFile_returnsNull() throws Exception {
+		assertNull(Checkpoint.load(new File(folder.getRoot(), "missing").getPath()));
+	}
+
+	@Test public void save_thenLoad_roundTrips() throws Exception {
+		String path = new File(folder.getRoot(), "checkpoint").getPath();
+		SpaceSavingSummary frequencies = new SpaceSavingSummary(2);
+		frequencies.offer(4);
+		frequencies.offer(4);
+		QuantileSketch quantiles = new QuantileSketch();
+		quantiles.update(12);
+
+		new Checkpoint(2, ImmutableList.of("a", "b"), "whole lines", new long[] {10, 20}, new long[] {3, 4},
+				ImmutableList.of(5L, 9L), frequencies, quantiles).save(path);
+		Checkpoint loaded = Checkpoint.load(path);
+
+		assertTrue(loaded.matches(ImmutableList.of("a", "b"), 2, "whole lines"));
+		assertFalse(loaded.matches(ImmutableList.of("a", "b"), 3, "whole lines"));
+		assertFalse(loaded.matches(ImmutableList.of("a", "b"), 2, "field 2"));
+		assertEquals(20, loaded.getOffset(1));
+		assertEquals(3, loaded.getLinesRead(0));
+		assertEquals("[5, 9]", loaded.getTop().toString());
+		assertEquals("[4 x 2 (+/-0)]", loaded.getFrequencies().toString());
+		assertEquals(12, loaded.getQuantiles().quantile(0.5));
+		assertFalse(new File(path + ".tmp").exists());
+	}
+
+	@Test public void execute_givenCheckpoint_resumesFromOffsetAndDeletesIt() throws Exception {
+		File numbers = folder.newFile("numbers.txt");
+		try (PrintWriter writer = new PrintWriter(numbers)) {
+			writer.print("1000\n2000\n3\n4\n");
+		}
+		String path = new File(folder.getRoot(), "checkpoint").getPath();
+		TopN topN = new TopN(ImmutableList.of(numbers.getPath()), 1, 1, 10);
+		/** As if the first two lines had been read before a crash, with 7 the best so far */
+		new Checkpoint(1, ImmutableList.of(numbers.getPath()), topN.parseOptions(), new long[] {10}, 
+				new long[] {2}, ImmutableList.of(7L), null, null).save(path);
+
+		topN.checkpointTo(path, 60000);
+		topN.execute();
+
+		assertEquals("[7]", topN.getHeap().toString());
+		assertFalse(new File(path).exists());
+	}
+
+	@Test public void execute_fileRewrittenSinceCheckpoint_startsOver() throws Exception {
+		File numbers = folder.newFile("numbers.txt");
+		try (PrintWriter writer = new PrintWriter(numbers)) {
+			writer.print("1000\n2000\n3\n4\n");
+		}
+		String path = new File(folder.getRoot(), "checkpoint").getPath();
+		TopN topN = new TopN(ImmutableList.of(numbers.getPath()), 1, 1, 10);
+		new Checkpoint(1, ImmutableList.of(numbers.getPath()), topN.parseOptions(), new long[] {10}, 
+				new long[] {2}, ImmutableList.of(7L), null, null).save(path);
+		try (PrintWriter writer = new PrintWriter(numbers)) {
+			writer.print("5\n6\n");
+		}
+
+		topN.checkpointTo(path, 60000);
+		topN.execute();
+
+		assertEquals("[6]", topN.getHeap().toString());
+	}
+
+	@Test public void execute_parsedDifferentlySinceCheckpoint_startsOver() throws Exception {
+		File numbers = folder.newFile("numbers.txt");
+		try (PrintWriter writer = new PrintWriter(numbers)) {
+			writer.print("1000\n2000\n3\n4\n");
+		}
+		String path = new File(folder.getRoot(), "checkpoint").getPath();
+		TopN topN = new TopN(ImmutableList.of(numbers.getPath()), 1, 1, 10);
+		new Checkpoint(1, ImmutableList.of(numbers.getPath()), topN.parseOptions(), new long[] {10}, 
+				new long[] {2}, ImmutableList.of(7L), null, null).save(path);
+
+		topN.handleBadLines(RejectPolicy.clamp());
+		topN.checkpointTo(path, 60000);
+		topN.execute();
+
+		assertEquals("[2000]", topN.getHeap().toString());
+	}
+
+	@Test public void checkpoint_workerStopped_throwsRatherThanWaiting() throws Exception {
+		File numbers = folder.newFile("numbers.txt");
+		try (PrintWriter writer = new PrintWriter(numbers)) {
+			for(int i = 0; i < 1000; i++) {
+				writer.print(i + "\n");
+			}
+		}
+		List<TopNWorker> workers = new ArrayList<>();
+		List<NumberFileReader> readers = new ArrayList<>();
+		TopN topN = new TopN(ImmutableList.of(numbers.getPath()), 1, 1, 10000) {
+			@Override protected void prepareAndStartWorkerPool() {
+				super.prepareAndStartWorkerPool();
+				workers.forEach(TopNWorker::finish);
+			}
+
+			/** Checkpoint once the worker has gone and everything is queued */
+			@Override protected void reportProgress() throws Exception {
+				while(!workers.get(0).isDone() || !readers.get(0).isFinished()) {
+					Thread.sleep(1);
+				}
+				checkpoint();
+			}
+		};
+		topN.setWorkers(workers);
+		topN.setFileReaders(readers);
+		topN.checkpointTo(new File(folder.getRoot(), "checkpoint").getPath(), 60000);
+
+		thrown.expectMessage("Cannot checkpoint - a worker stopped");
+		try {
+			topN.execute();
+		} finally {
+			topN.cleanUp();
+		}
+	}
+}
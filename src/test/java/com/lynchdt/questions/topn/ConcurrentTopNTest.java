@@ -0,0 +1,114 @@
+package com.lynchdt.questions.topn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+
+public class ConcurrentTopNTest {
+
+	@Rule public final TemporaryFolder folder = new TemporaryFolder();
+	@Rule public final ExpectedException thrown = ExpectedException.none();
+
+	@Test public void insert_fromManyThreads_keepsTopN() throws Exception {
+		ConcurrentTopN top = new ConcurrentTopN(100, 4, new SharedThreshold());
+		List<Long> values = Collections.synchronizedList(new ArrayList<>());
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> inserting = new ArrayList<>();
+			for(int t = 0; t < 8; t++) {
+				long seed = t;
+				inserting.add(executor.submit(() -> {
+					Random random = new Random(seed);
+					for(int i = 0; i < 20000; i++) {
+						long value = random.nextInt(50000);
+						values.add(value);
+						top.insert(value);
+					}
+				}));
+			}
+			for(Future<?> future : inserting) {
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		values.sort(Collections.reverseOrder());
+
+		assertEquals(values.subList(0, 100), top.snapshot().toSortedList());
+	}
+
+	@Test public void insert_onceStripesFill_raisesFloor() {
+		SharedThreshold floor = new SharedThreshold();
+		ConcurrentTopN top = new ConcurrentTopN(3, 1, floor);
+		for(long value = 1; value <= 10; value++) {
+			top.insert(value);
+		}
+
+		assertEquals(8, top.getFloor());
+		assertEquals(8, floor.get());
+	}
+
+	@Test public void insert_belowFloor_turnedAway() {
+		SharedThreshold floor = new SharedThreshold();
+		floor.raiseTo(50);
+		ConcurrentTopN top = new ConcurrentTopN(3, 2, floor);
+
+		top.insert(49);
+		top.insert(50);
+
+		assertEquals("[50]", top.snapshot().toString());
+	}
+
+	@Test public void drainInto_movesValuesAndEmptiesStripes() {
+		ConcurrentTopN top = new ConcurrentTopN(2, 2, new SharedThreshold());
+		top.insert(5);
+		top.insert(9);
+		BoundedMinHeap other = new BoundedMinHeap(2);
+
+		top.drainInto(other);
+
+		assertEquals("[9, 5]", other.toSortedList().toString());
+		assertEquals("[]", top.snapshot().toString());
+	}
+
+	@Test public void execute_insertingConcurrently_givesSameResult() throws Exception {
+		List<Long> values = new ArrayList<>();
+		for(long i = 1; i <= 20000; i++) {
+			values.add(i % 7000);
+		}
+		Collections.shuffle(values, new Random(9));
+		File file = folder.newFile();
+		try (PrintWriter writer = new PrintWriter(file)) {
+			values.forEach((value) -> writer.print(value + "\n"));
+		}
+
+		TopN topN = new TopN(ImmutableList.of(file.getPath()), 5, 3, 100);
+		topN.insertConcurrently(3);
+		topN.execute();
+
+		assertEquals("[6999, 6999, 6998, 6998, 6997]", topN.getHeap().toString());
+		assertTrue(topN.getHeap().isFull());
+	}
+
+	@Test public void constructor_noStripes_throws() {
+		thrown.expect(IllegalArgumentException.class);
+
+		new ConcurrentTopN(5, 0, new SharedThreshold());
+	}
+}
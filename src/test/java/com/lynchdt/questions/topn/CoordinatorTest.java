@@ -0,0 +1,170 @@
+package com.lynchdt.questions.topn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+
+public class CoordinatorTest {
+
+	@Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private final List<Process> processes = new ArrayList<>();
+
+	@After public void shutDown() {
+		executor.shutdownNow();
+		processes.forEach(Process::destroy);
+	}
+
+	private File shuffled(String name, int count) throws Exception {
+		List<Long> values = new ArrayList<>();
+		for(long i = 1; i <= count; i++) {
+			values.add(i);
+		}
+		Collections.shuffle(values, new Random(3));
+		File file = folder.newFile(name);
+		try (PrintWriter writer = new PrintWriter(file)) {
+			values.forEach((value) -> writer.print(value + "\n"));
+		}
+		return file;
+	}
+
+	private Future<?> start(Coordinator coordinator) {
+		return executor.submit(() -> {
+			coordinator.execute();
+			return null;
+		});
+	}
+
+	private void startRemoteWorker(int port) {
+		executor.submit(() -> {
+			new RemoteWorker("localhost", port, 2, 100).execute();
+			return null;
+		});
+	}
+
+	/**
+	 * A RemoteWorker in a JVM of its own, through its main(), as it would be run for real.
+	 */
+	private Process startRemoteWorkerProcess(int port) throws Exception {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				RemoteWorker.class.getName(), "localhost", String.valueOf(port), "2", "100")
+				.redirectErrorStream(true)
+				.start();
+		processes.add(process);
+		return process;
+	}
+
+	/**
+	 * Connects and takes a chunk like a worker would, then does nothing with it.
+	 */
+	private Socket takeChunkAndStall(int port) throws Exception {
+		Socket socket = new Socket("localhost", port);
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		in.readUTF();
+		in.readInt();
+		assertEquals(Coordinator.CHUNK, in.readInt());
+		return socket;
+	}
+
+	@Test public void readRange_chunksEndToEnd_readEveryLineOnce() throws Exception {
+		File numbers = shuffled("numbers.txt", 1000);
+		RemoteWorker worker = new RemoteWorker("localhost", 0, 1, 10);
+		long total = 0;
+		for(long start = 0; start < numbers.length(); start += 100) {
+			total += worker.scan(1000, numbers.getPath(), start, Math.min(numbers.length(), start + 100), Long.MIN_VALUE).getHeap().size();
+		}
+		assertEquals(1000, total);
+	}
+
+	@Test public void execute_severalWorkers_matchesSingleScan() throws Exception {
+		File first = shuffled("first.txt", 20000);
+		File second = shuffled("second.txt", 500);
+		Coordinator coordinator = new Coordinator(ImmutableList.of(first.getPath(), second.getPath()), 5, 0);
+		coordinator.splitInto(8192);
+		int port = coordinator.listen();
+		Future<?> done = start(coordinator);
+		for(int i = 0; i < 3; i++) {
+			startRemoteWorker(port);
+		}
+		done.get();
+
+		assertEquals("[20000, 19999, 19998, 19997, 19996]", coordinator.getHeap().toString());
+	}
+
+	@Test public void execute_workerProcesses_matchesSingleScan() throws Exception {
+		File first = shuffled("first.txt", 20000);
+		File second = shuffled("second.txt", 500);
+		Coordinator coordinator = new Coordinator(ImmutableList.of(first.getPath(), second.getPath()), 5, 0);
+		coordinator.splitInto(8192);
+		int port = coordinator.listen();
+		Future<?> done = start(coordinator);
+		List<Process> workers = ImmutableList.of(startRemoteWorkerProcess(port), startRemoteWorkerProcess(port));
+		done.get();
+
+		assertEquals("[20000, 19999, 19998, 19997, 19996]", coordinator.getHeap().toString());
+		for(Process worker : workers) {
+			String output;
+			try (InputStream in = worker.getInputStream()) {
+				output = new String(ByteStreams.toByteArray(in), StandardCharsets.US_ASCII);
+			}
+			assertTrue("Still running after the last chunk", worker.waitFor(30, TimeUnit.SECONDS));
+			assertEquals(output, 0, worker.exitValue());
+		}
+	}
+
+	@Test public void execute_workerLost_chunkGoesToAnother() throws Exception {
+		File numbers = shuffled("numbers.txt", 20000);
+		Coordinator coordinator = new Coordinator(ImmutableList.of(numbers.getPath()), 3, 0);
+		coordinator.splitInto(8192);
+		int port = coordinator.listen();
+		Future<?> done = start(coordinator);
+		takeChunkAndStall(port).close();
+		startRemoteWorker(port);
+		done.get();
+
+		assertEquals("[20000, 19999, 19998]", coordinator.getHeap().toString());
+	}
+
+	/**
+	 * The straggler's connection only has to stay open, so it isn't used in the try.
+	 */
+	@SuppressWarnings("try")
+	@Test public void execute_straggler_getsBackupCopy() throws Exception {
+		File numbers = shuffled("numbers.txt", 20000);
+		Coordinator coordinator = new Coordinator(ImmutableList.of(numbers.getPath()), 3, 0);
+		coordinator.splitInto(8192);
+		coordinator.backUpStragglersAfter(100);
+		int port = coordinator.listen();
+		Future<?> done = start(coordinator);
+		try (Socket straggler = takeChunkAndStall(port)) {
+			startRemoteWorker(port);
+			done.get();
+		}
+
+		assertEquals("[20000, 19999, 19998]", coordinator.getHeap().toString());
+	}
+}
@@ -0,0 +1,93 @@
+package com.lynchdt.questions.topn;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LineParserTest {
+
+	private final LineParser parser = new LineParser();
+
+	private int parse(String line) throws Exception {
+		byte[] bytes = line.getBytes("US-ASCII");
+		return parser.parse(bytes, 0, bytes.length);
+	}
+
+	@Test public void parse_plainNumbers_ok() throws Exception {
+		assertEquals(LineParser.OK, parse("12345"));
+		assertEquals(12345, parser.getValue());
+		assertEquals(LineParser.OK, parse("-42"));
+		assertEquals(-42, parser.getValue());
+		assertEquals(LineParser.OK, parse("+7"));
+		assertEquals(7, parser.getValue());
+	}
+
+	@Test public void parse_extremes_ok() throws Exception {
+		assertEquals(LineParser.OK, parse("9223372036854775807"));
+		assertEquals(Long.MAX_VALUE, parser.getValue());
+		assertEquals(LineParser.OK, parse("-9223372036854775808"));
+		assertEquals(Long.MIN_VALUE, parser.getValue());
+	}
+
+	@Test public void parse_emptyOrSpaces_blank() throws Exception {
+		assertEquals(LineParser.BLANK, parse(""));
+		assertEquals(LineParser.BLANK, parse(" \t "));
+	}
+
+	@Test public void parse_spacesAroundNumber_whitespaceWithValue() throws Exception {
+		assertEquals(LineParser.WHITESPACE, parse("  -15\t"));
+		assertEquals(-15, parser.getValue());
+		assertEquals(LineParser.WHITESPACE, parse("-15 "));
+	}
+
+	@Test public void parse_junk_malformed() throws Exception {
+		assertEquals(LineParser.MALFORMED, parse("12a4"));
+		assertEquals(LineParser.MALFORMED, parse("-"));
+		assertEquals(LineParser.MALFORMED, parse("1 2"));
+		assertEquals(LineParser.MALFORMED, parse("99999999999999999999x"));
+	}
+
+	@Test public void parse_tooBig_overflowClamped() throws Exception {
+		assertEquals(LineParser.OVERFLOW, parse("9223372036854775808"));
+		assertEquals(Long.MAX_VALUE, parser.getValue());
+		assertEquals(LineParser.OVERFLOW, parse("-9223372036854775809"));
+		assertEquals(Long.MIN_VALUE, parser.getValue());
+		assertEquals(LineParser.OVERFLOW, parse("100000000000000000000"));
+	}
+
+	@Test public void parse_selectedField_parsesOnlyThatField() throws Exception {
+		parser.selectField(',', 3);
+
+		assertEquals(LineParser.OK, parse("a,b,-17,d,e"));
+		assertEquals(-17, parser.getValue());
+		assertEquals(LineParser.OK, parse("x,,42"));
+		assertEquals(42, parser.getValue());
+	}
+
+	@Test public void parse_selectedFirstField_stopsAtDelimiter() throws Exception {
+		parser.selectField('\t', 1);
+
+		assertEquals(LineParser.OK, parse("99\tjunk\tmore"));
+		assertEquals(99, parser.getValue());
+	}
+
+	@Test public void parse_tooFewFields_missing() throws Exception {
+		parser.selectField(',', 3);
+
+		assertEquals(LineParser.MISSING, parse("1,2"));
+		assertEquals(LineParser.BLANK, parse("1,2,"));
+		assertEquals(LineParser.MALFORMED, parse("1,2,three"));
+	}
+
+	@Test public void parse_randomLongs_matchesParseLong() throws Exception {
+		Random random = new Random(13);
+		for(int i = 0; i < 10000; i++) {
+			long value = random.nextLong() >> random.nextInt(64);
+
+			assertEquals(LineParser.OK, parse(Long.toString(value)));
+			assertEquals(value, parser.getValue());
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package com.lynchdt.questions.topn;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class NumberFileReaderTest {
+
+	@Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+	@After public void clearInterrupt() {
+		Thread.interrupted();
+	}
+
+	private File numbers(int count) throws Exception {
+		File file = folder.newFile();
+		try (PrintWriter writer = new PrintWriter(file)) {
+			for(int i = 0; i < count; i++) {
+				writer.print(i + "\n");
+			}
+		}
+		return file;
+	}
+
+	@Test public void run_interruptedWhileQueueing_failsAndKeepsInterrupt() throws Exception {
+		BlockingQueue<Long> queue = new ArrayBlockingQueue<>(1000);
+		NumberFileReader reader = new NumberFileReader(queue, numbers(100).getPath());
+		CountDownLatch done = new CountDownLatch(1);
+		reader.countDownWhenDone(done);
+
+		Thread.currentThread().interrupt();
+		reader.run();
+
+		assertTrue(reader.getFailure() instanceof InterruptedException);
+		assertFalse(reader.isFinished());
+		assertTrue(queue.size() < 100);
+		assertTrue(Thread.currentThread().isInterrupted());
+		assertTrue(done.getCount() == 0);
+	}
+
+	@Test public void run_notInterrupted_queuesEveryValue() throws Exception {
+		BlockingQueue<Long> queue = new ArrayBlockingQueue<>(1000);
+		NumberFileReader reader = new NumberFileReader(queue, numbers(100).getPath());
+
+		reader.run();
+
+		assertTrue(reader.isFinished());
+		assertTrue(reader.getFailure() == null);
+		assertTrue(queue.size() == 100);
+	}
+}
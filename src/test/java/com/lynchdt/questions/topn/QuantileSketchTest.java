@@ -0,0 +1,77 @@
+package com.lynchdt.questions.topn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class QuantileSketchTest {
+
+	@Rule public final ExpectedException thrown=ExpectedException.none();
+
+	/**
+	 * Values 0..count-1 in a shuffled order, so quantile q should be close to q * count.
+	 */
+	private QuantileSketch shuffledRange(int count, long seed) {
+		Random random = new Random(seed);
+		long[] values = new long[count];
+		for(int i = 0; i < count; i++) {
+			values[i] = i;
+		}
+		for(int i = count - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			long temp = values[i];
+			values[i] = values[j];
+			values[j] = temp;
+		}
+		QuantileSketch sketch = new QuantileSketch(200, random);
+		for(long value : values) {
+			sketch.update(value);
+		}
+		return sketch;
+	}
+
+	@Test public void quantile_emptySketch_throws() {
+		thrown.expect(RuntimeException.class);
+		new QuantileSketch().quantile(0.5);
+	}
+
+	@Test public void quantile_fewValues_isExact() {
+		QuantileSketch sketch = new QuantileSketch();
+		for(long value : new long[] {10, 11, 5, 6, 5}) {
+			sketch.update(value);
+		}
+
+		assertEquals(5, sketch.quantile(0.0));
+		assertEquals(6, sketch.quantile(0.5));
+		assertEquals(11, sketch.quantile(1.0));
+	}
+
+	@Test public void quantile_manyValues_withinRankError() {
+		int count = 1000000;
+		QuantileSketch sketch = shuffledRange(count, 7);
+
+		assertEquals(count, sketch.getCount());
+		assertEquals(0.5 * count, sketch.quantile(0.5), 0.02 * count);
+		assertEquals(0.99 * count, sketch.quantile(0.99), 0.02 * count);
+	}
+
+	@Test public void merge_twoSketches_coversBothStreams() {
+		QuantileSketch first = new QuantileSketch(200, new Random(1));
+		QuantileSketch second = new QuantileSketch(200, new Random(2));
+		for(long i = 0; i < 100000; i++) {
+			first.update(i);
+			second.update(i + 100000);
+		}
+
+		first.merge(second);
+
+		assertEquals(200000, first.getCount());
+		assertEquals(100000, first.quantile(0.5), 4000);
+		assertTrue(first.quantile(0.99) > 190000);
+	}
+}
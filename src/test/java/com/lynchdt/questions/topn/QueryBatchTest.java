@@ -0,0 +1,99 @@
+package com.lynchdt.questions.topn;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+
+public class QueryBatchTest {
+
+	@Rule public final TemporaryFolder folder = new TemporaryFolder();
+	@Rule public final ExpectedException thrown = ExpectedException.none();
+
+	private String a;
+	private String b;
+	private String c;
+
+	private String numbers(String name, long... values) throws Exception {
+		File file = folder.newFile(name);
+		try (PrintWriter writer = new PrintWriter(file)) {
+			for(long value : values) {
+				writer.print(value + "\n");
+			}
+		}
+		return file.getPath();
+	}
+
+	@Before public void setUp() throws Exception {
+		a = numbers("a.txt", 5, 40, 3, 17, 40);
+		b = numbers("b.txt", 100, 2, 8);
+		c = numbers("c.txt", 60, 61, 1);
+	}
+
+	@Test public void execute_overlappingQueries_answersEach() throws Exception {
+		QueryBatch batch = new QueryBatch();
+		batch.add("global", 4, ImmutableList.of(a, b, c));
+		batch.add("a", 2, ImmutableList.of(a));
+		batch.add("b", 2, ImmutableList.of(b));
+		batch.add("ac", 3, ImmutableList.of(a, c));
+		batch.reportTo(new PrintStream(new ByteArrayOutputStream()));
+
+		batch.execute();
+
+		assertEquals("[100, 61, 60, 40]", Arrays.toString(batch.getResult("global")));
+		assertEquals("[40, 40]", Arrays.toString(batch.getResult("a")));
+		assertEquals("[100, 8]", Arrays.toString(batch.getResult("b")));
+		assertEquals("[61, 60, 40]", Arrays.toString(batch.getResult("ac")));
+		assertEquals(3, batch.fileCount());
+	}
+
+	@Test public void execute_printsEachQuery() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		QueryBatch batch = new QueryBatch();
+		batch.add("b", 1, ImmutableList.of(b));
+		batch.add("c", 2, ImmutableList.of(c));
+		batch.reportTo(new PrintStream(bytes));
+
+		batch.execute();
+
+		String newLine = System.lineSeparator();
+		assertEquals("b Top-1 -> [100]" + newLine + "c Top-2 -> [61, 60]" + newLine, bytes.toString());
+	}
+
+	@Test public void execute_moreThanAFileHas_givesWhatThereIs() throws Exception {
+		QueryBatch batch = new QueryBatch();
+		batch.add("all of b", 10, ImmutableList.of(b));
+		batch.reportTo(new PrintStream(new ByteArrayOutputStream()));
+
+		batch.execute();
+
+		assertEquals("[100, 8, 2]", Arrays.toString(batch.getResult("all of b")));
+	}
+
+	@Test public void execute_missingFile_throws() throws Exception {
+		thrown.expect(RuntimeException.class);
+		thrown.expectMessage("could not read");
+
+		QueryBatch batch = new QueryBatch();
+		batch.add("missing", 1, ImmutableList.of(a, new File(folder.getRoot(), "missing.txt").getPath()));
+		batch.reportTo(new PrintStream(new ByteArrayOutputStream()));
+		batch.execute();
+	}
+
+	@Test public void add_noFiles_throws() {
+		thrown.expect(IllegalArgumentException.class);
+
+		new QueryBatch().add("none", 1, ImmutableList.of());
+	}
+}
@@ -0,0 +1,120 @@
+package com.lynchdt.questions.topn;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+
+public class ReadAheadTest {
+
+	@Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+	private File file(String contents) throws Exception {
+		File file = folder.newFile();
+		try (PrintWriter writer = new PrintWriter(file)) {
+			writer.print(contents);
+		}
+		return file;
+	}
+
+	/**
+	 * Reads in odd sized pieces so they never line up with the blocks.
+	 */
+	private String readAll(ReadAhead readAhead) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[5];
+		int read;
+		while((read = readAhead.read(buffer, 0, buffer.length)) != -1) {
+			bytes.write(buffer, 0, read);
+		}
+		return bytes.toString("US-ASCII");
+	}
+
+	@Test public void read_smallBlocks_givesWholeFile() throws Exception {
+		String contents = "1\n22\n333\n4444\n55555\n666666\n7777777\n";
+		File file = file(contents);
+
+		try (ReadAhead readAhead = new ReadAhead(file.getPath(), 7, 3)) {
+			assertEquals(contents, readAll(readAhead));
+		}
+	}
+
+	@Test public void read_fromUnalignedPosition_startsThere() throws Exception {
+		File file = file("abcdefghijklmnopqrstuvwxyz");
+
+		try (ReadAhead readAhead = new ReadAhead(file.getPath(), 7, 3)) {
+			readAhead.position(10, Long.MAX_VALUE);
+			assertEquals("klmnopqrstuvwxyz", readAll(readAhead));
+		}
+	}
+
+	@Test public void read_withLimit_stopsThere() throws Exception {
+		File file = file("abcdefghijklmnopqrstuvwxyz");
+
+		try (ReadAhead readAhead = new ReadAhead(file.getPath(), 7, 3)) {
+			readAhead.position(3, 17);
+			assertEquals("defghijklmnopq", readAll(readAhead));
+			readAhead.position(20, 22);
+			assertEquals("uv", readAll(readAhead));
+		}
+	}
+
+	@Test public void read_pastEndOfFile_picksUpAppendedBytes() throws Exception {
+		File file = file("abcdefghij");
+
+		try (ReadAhead readAhead = new ReadAhead(file.getPath(), 7, 3)) {
+			assertEquals("abcdefghij", readAll(readAhead));
+			try (FileOutputStream append = new FileOutputStream(file, true)) {
+				append.write("klmnopqrstu".getBytes("US-ASCII"));
+			}
+			assertEquals("klmnopqrstu", readAll(readAhead));
+		}
+	}
+
+	@Test public void execute_readingAhead_givesSameResult() throws Exception {
+		List<Long> values = new ArrayList<>();
+		for(long i = 1; i <= 20000; i++) {
+			values.add(i);
+		}
+		Collections.shuffle(values, new Random(3));
+		StringBuilder contents = new StringBuilder();
+		values.forEach((value) -> contents.append(value).append('\n'));
+		File file = file(contents.toString());
+
+		TopN topN = new TopN(ImmutableList.of(file.getPath()), 3, 2, 100);
+		topN.readAhead(1000, 3);
+		topN.execute();
+
+		assertEquals("[20000, 19999, 19998]", topN.getHeap().toString());
+	}
+
+	@Test public void execute_readingAheadWithIndex_givesSameResult() throws Exception {
+		StringBuilder contents = new StringBuilder();
+		for(int i = 1; i <= 10000; i++) {
+			contents.append(i).append('\n');
+		}
+		File file = file(contents.toString());
+		TopN first = new TopN(ImmutableList.of(file.getPath()), 3, 1, 100);
+		first.useBlockIndexes(256);
+		first.execute();
+
+		TopN second = new TopN(ImmutableList.of(file.getPath()), 3, 1, 100);
+		second.useBlockIndexes(256);
+		second.readAhead(100, 2);
+		second.execute();
+
+		assertEquals("[10000, 9999, 9998]", second.getHeap().toString());
+	}
+}
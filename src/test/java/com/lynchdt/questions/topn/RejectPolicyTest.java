@@ -0,0 +1,165 @@
+package com.lynchdt.questions.topn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+
+public class RejectPolicyTest {
+
+	@Rule public final TemporaryFolder folder = new TemporaryFolder();
+	@Rule public final ExpectedException thrown = ExpectedException.none();
+
+	private static final String DIRTY = "5\n\n 7 \n12x\n99999999999999999999\n3\n";
+
+	private File numbers(String contents) throws Exception {
+		File file = folder.newFile();
+		try (PrintWriter writer = new PrintWriter(file)) {
+			writer.print(contents);
+		}
+		return file;
+	}
+
+	private BlockingQueue<Long> read(File file, RejectPolicy rejects) throws Exception {
+		BlockingQueue<Long> queue = new ArrayBlockingQueue<>(100);
+		NumberFileReader reader = new NumberFileReader(queue, file.getPath());
+		reader.handleBadLines(rejects);
+		reader.execute();
+		return queue;
+	}
+
+	@Test public void skip_dropsAndCountsBadLines() throws Exception {
+		RejectPolicy rejects = RejectPolicy.skip();
+
+		assertEquals("[5, 3]", read(numbers(DIRTY), rejects).toString());
+		assertEquals(1, rejects.getCount(LineParser.BLANK));
+		assertEquals(1, rejects.getCount(LineParser.WHITESPACE));
+		assertEquals(1, rejects.getCount(LineParser.MALFORMED));
+		assertEquals(1, rejects.getCount(LineParser.OVERFLOW));
+		assertEquals("1 blank, 1 whitespace, 1 malformed, 1 overflow (4 dropped)", rejects.summary());
+	}
+
+	@Test public void clamp_keepsTrimmedAndClampedValues() throws Exception {
+		RejectPolicy rejects = RejectPolicy.clamp();
+
+		assertEquals("[5, 7, 9223372036854775807, 3]", read(numbers(DIRTY), rejects).toString());
+		assertEquals(2, rejects.getRejected());
+	}
+
+	@Test public void summary_everyLineGood_isNull() throws Exception {
+		RejectPolicy rejects = RejectPolicy.skip();
+		read(numbers("1\n2\n"), rejects);
+
+		assertNull(rejects.summary());
+	}
+
+	@Test public void failAfter_tooManyBadLines_throws() throws Exception {
+		thrown.expect(RuntimeException.class);
+		thrown.expectMessage("Giving up after 3 bad lines");
+
+		read(numbers(DIRTY), RejectPolicy.failAfter(2));
+	}
+
+	@Test public void failAfter_fewEnoughBadLines_carriesOn() throws Exception {
+		assertEquals("[5, 3]", read(numbers(DIRTY), RejectPolicy.failAfter(4)).toString());
+	}
+
+	@Test public void writeRejectsTo_recordsOffsetsOfDroppedLines() throws Exception {
+		File file = numbers(DIRTY);
+		File rejectFile = new File(folder.getRoot(), "rejects.txt");
+		RejectPolicy rejects = RejectPolicy.clamp();
+		rejects.writeRejectsTo(rejectFile.getPath());
+
+		read(file, rejects);
+		rejects.close();
+
+		assertEquals(ImmutableList.of(file.getPath() + ":2: blank: ", file.getPath() + ":7: malformed: 12x"),
+				Files.readAllLines(rejectFile.toPath()));
+	}
+
+	@Test public void execute_withBadLines_givesTopOfTheGoodOnes() throws Exception {
+		TopN topN = new TopN(ImmutableList.of(numbers(DIRTY).getPath()), 2, 2, 100);
+		topN.handleBadLines(RejectPolicy.skip());
+		topN.execute();
+
+		assertEquals("[5, 3]", topN.getHeap().toString());
+	}
+
+	@Test public void execute_selectingField_givesTopOfThatColumn() throws Exception {
+		File file = numbers("id,score,name\n1,50,a\n2,70,b\n3,60\n4\n5,x,c\n");
+		RejectPolicy rejects = RejectPolicy.skip();
+
+		TopN topN = new TopN(ImmutableList.of(file.getPath()), 2, 2, 100);
+		topN.selectField(',', 2);
+		topN.handleBadLines(rejects);
+		topN.execute();
+
+		assertEquals("[70, 60]", topN.getHeap().toString());
+		assertEquals("2 malformed, 1 missing (3 dropped)", rejects.summary());
+	}
+
+	@Test public void execute_clampingWithBlockIndexes_isRefused() throws Exception {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("not clamped");
+
+		TopN topN = new TopN(ImmutableList.of(numbers(DIRTY).getPath()), 2, 2, 100);
+		topN.handleBadLines(RejectPolicy.clamp());
+		topN.useBlockIndexes(256);
+		topN.execute();
+	}
+
+	@Test public void execute_clampingWithSummaryCache_isRefused() throws Exception {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("not clamped");
+
+		TopN topN = new TopN(ImmutableList.of(numbers(DIRTY).getPath()), 2, 2, 100);
+		topN.handleBadLines(RejectPolicy.clamp());
+		topN.useSummaryCache(SummaryCache.open(new File(folder.getRoot(), "cache").getPath(), 100), 10);
+		topN.execute();
+	}
+
+	@Test public void execute_failingOnBadLines_cannotReport() throws Exception {
+		thrown.expect(RuntimeException.class);
+		thrown.expectMessage("not every file could be read. Giving up after 1 bad lines");
+
+		TopN topN = new TopN(ImmutableList.of(numbers(DIRTY).getPath()), 2, 2, 100);
+		topN.reportTo(new PrintStream(new ByteArrayOutputStream()));
+		topN.handleBadLines(RejectPolicy.failAfter(0));
+		topN.execute();
+	}
+
+	@Test public void main_failingOnBadLines_exitsWithError() throws Exception {
+		File file = numbers(DIRTY);
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				TopN.class.getName(), "2", "2", "100", "--bad-lines=fail", file.getPath())
+				.redirectErrorStream(true)
+				.start();
+		String output;
+		try (InputStream in = process.getInputStream()) {
+			output = new String(ByteStreams.toByteArray(in), StandardCharsets.US_ASCII);
+		}
+
+		assertTrue("Still running after bad lines", process.waitFor(30, TimeUnit.SECONDS));
+		assertEquals(1, process.exitValue());
+		assertTrue(output, output.contains("Giving up after 1 bad lines"));
+	}
+}
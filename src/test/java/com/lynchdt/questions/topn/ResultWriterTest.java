@@ -0,0 +1,93 @@
+package com.lynchdt.questions.topn;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+
+public class ResultWriterTest {
+
+	@Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+	private static final long[] VALUES = {Long.MAX_VALUE, 42, 0, -7, Long.MIN_VALUE};
+
+	@Test public void toConsole_writesLikeAList() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (ResultWriter writer = ResultWriter.toConsole(bytes, 5)) {
+			writer.write(VALUES);
+		}
+
+		assertEquals("Top-5 -> [9223372036854775807, 42, 0, -7, -9223372036854775808]" + System.lineSeparator(),
+				bytes.toString("US-ASCII"));
+	}
+
+	@Test public void toTextFile_writesALinePerValue() throws Exception {
+		File file = folder.newFile();
+
+		try (ResultWriter writer = ResultWriter.toTextFile(file.getPath())) {
+			writer.write(VALUES);
+		}
+
+		assertEquals("9223372036854775807\n42\n0\n-7\n-9223372036854775808\n",
+				new String(Files.readAllBytes(file.toPath()), "US-ASCII"));
+	}
+
+	@Test public void toBinaryFile_writesCountThenLongs() throws Exception {
+		File file = folder.newFile();
+
+		try (ResultWriter writer = ResultWriter.toBinaryFile(file.getPath())) {
+			writer.write(VALUES);
+		}
+
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			assertEquals(VALUES.length, in.readInt());
+			for(long value : VALUES) {
+				assertEquals(value, in.readLong());
+			}
+		}
+	}
+
+	@Test public void toTextFile_moreThanABuffer_writesEveryValue() throws Exception {
+		File file = folder.newFile();
+		long[] values = new long[100000];
+		for(int i = 0; i < values.length; i++) {
+			values[i] = values.length - i;
+		}
+
+		try (ResultWriter writer = ResultWriter.toTextFile(file.getPath())) {
+			writer.write(values);
+		}
+
+		String[] lines = new String(Files.readAllBytes(file.toPath()), "US-ASCII").split("\n");
+		assertEquals(values.length, lines.length);
+		assertEquals("100000", lines[0]);
+		assertEquals("1", lines[lines.length - 1]);
+	}
+
+	@Test public void execute_withOutputFile_writesResultThere() throws Exception {
+		File numbers = folder.newFile();
+		try (PrintWriter writer = new PrintWriter(numbers)) {
+			for(int i = 1; i <= 1000; i++) {
+				writer.print(i + "\n");
+			}
+		}
+		File output = new File(folder.getRoot(), "top.txt");
+
+		TopN topN = new TopN(ImmutableList.of(numbers.getPath()), 3, 2, 100);
+		topN.writeResultTo(output.getPath(), false);
+		topN.execute();
+
+		assertEquals("1000\n999\n998\n", new String(Files.readAllBytes(output.toPath()), "US-ASCII"));
+	}
+}
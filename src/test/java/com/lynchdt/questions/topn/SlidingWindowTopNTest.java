@@ -0,0 +1,111 @@
+package com.lynchdt.questions.topn;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class SlidingWindowTopNTest {
+
+	@Rule public final ExpectedException thrown=ExpectedException.none();
+
+	@Test public void overLines_noWindow_throws() {
+		thrown.expect(IllegalArgumentException.class);
+		SlidingWindowTopN.overLines(3, 0);
+	}
+
+	@Test public void insert_lineWindow_keepsTopOfMostRecent() {
+		SlidingWindowTopN window = SlidingWindowTopN.overLines(2, 3);
+		for(long value : new long[] {100, 90, 1, 2, 3}) {
+			window.insert(value);
+		}
+
+		/** 100 and 90 have slid out, which a heap could not have handled */
+		assertEquals("[3, 2]", window.toString());
+		assertEquals(3, window.getSize());
+	}
+
+	@Test public void insert_duplicates_countedSeparately() {
+		SlidingWindowTopN window = SlidingWindowTopN.overLines(3, 4);
+		for(long value : new long[] {7, 7, 7, 1}) {
+			window.insert(value);
+		}
+		window.insert(2);
+
+		assertEquals("[7, 7, 2]", window.toString());
+	}
+
+	@Test public void expire_timeWindow_dropsOldValues() {
+		SlidingWindowTopN window = SlidingWindowTopN.overMillis(2, 100);
+		window.insert(50, 1000);
+		window.insert(40, 1050);
+		window.insert(10, 1120);
+
+		assertEquals("[40, 10]", window.toString());
+
+		window.expire(1300);
+
+		assertEquals("[]", window.toString());
+	}
+
+	@Test public void insert_moreThanInitialCapacity_keepsOrder() {
+		SlidingWindowTopN window = SlidingWindowTopN.overLines(1, 5000);
+		for(long value = 0; value < 10000; value++) {
+			window.insert(value % 7000);
+		}
+
+		/** The window holds 5000..9999, i.e. 5000..6999 then 0..2999 */
+		assertEquals("[6999]", window.toString());
+		assertEquals(5000, window.getSize());
+	}
+
+	@Test public void insert_belowTopN_leavesVersion() {
+		SlidingWindowTopN window = SlidingWindowTopN.overLines(2, 10);
+		window.insert(50);
+		window.insert(40);
+		long version = window.getVersion();
+
+		window.insert(10);
+		window.insert(40);
+
+		assertEquals(version, window.getVersion());
+		window.insert(45);
+		assertEquals(version + 1, window.getVersion());
+	}
+
+	@Test public void insert_randomValues_versionMovesExactlyWhenTopChanges() {
+		Random random = new Random(11);
+		for(int N : new int[] {1, 3, 8}) {
+			SlidingWindowTopN window = SlidingWindowTopN.overMillis(N, 50);
+			for(long now = 0; now < 20000; now += random.nextInt(3)) {
+				boolean inserting = random.nextInt(4) > 0;
+				if(inserting) {
+					/** So the insert doesn't expire anything too, which might undo its change */
+					window.expire(now);
+				}
+				List<Long> top = window.getTop();
+				long version = window.getVersion();
+
+				if(inserting) {
+					window.insert(random.nextInt(20), now);
+				} else {
+					window.expire(now);
+				}
+
+				assertEquals("N=" + N + " at " + now, !window.getTop().equals(top), window.getVersion() != version);
+			}
+		}
+	}
+
+	@Test public void awaitChange_afterInsert_returnsNewVersion() throws Exception {
+		SlidingWindowTopN window = SlidingWindowTopN.overLines(1, 1);
+		long version = window.getVersion();
+		window.insert(1);
+
+		assertEquals(version + 1, window.awaitChange(version, 1000));
+	}
+}
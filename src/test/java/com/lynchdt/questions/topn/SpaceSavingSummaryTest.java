@@ -0,0 +1,80 @@
+package com.lynchdt.questions.topn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.lynchdt.questions.topn.SpaceSavingSummary.Counter;
+
+public class SpaceSavingSummaryTest {
+
+	@Rule public final ExpectedException thrown=ExpectedException.none();
+
+	@Test public void constructor_zeroCounters_throws() {
+		thrown.expect(IllegalArgumentException.class);
+		new SpaceSavingSummary(0);
+	}
+
+	@Test public void offer_fewerDistinctThanCounters_countsExactly() {
+		SpaceSavingSummary summary = new SpaceSavingSummary(4);
+		for(long value : new long[] {5, 7, 5, 9, 5, 7}) {
+			summary.offer(value);
+		}
+
+		assertEquals("[5 x 3 (+/-0), 7 x 2 (+/-0), 9 x 1 (+/-0)]", summary.toString());
+		assertEquals(0, summary.minCount());
+	}
+
+	@Test public void offer_newValueWhenFull_takesOverSmallestCounter() {
+		SpaceSavingSummary summary = new SpaceSavingSummary(2);
+		for(long value : new long[] {5, 5, 5, 7, 9}) {
+			summary.offer(value);
+		}
+
+		assertEquals("[5 x 3 (+/-0), 9 x 2 (+/-1)]", summary.toString());
+	}
+
+	@Test public void offer_skewedStream_findsHeavyHittersWithinBound() {
+		SpaceSavingSummary summary = new SpaceSavingSummary(50);
+		Random random = new Random(42);
+		for(int i = 0; i < 100000; i++) {
+			/** Every fifth value is one of three heavy hitters, the rest are noise */
+			summary.offer(i % 5 == 0 ? i % 3 : random.nextLong());
+		}
+
+		List<Counter> top = summary.getMostFrequent(3);
+		for(Counter counter : top) {
+			assertTrue(counter.getValue() >= 0 && counter.getValue() < 3);
+			assertTrue(counter.getCount() - counter.getError() <= 6667);
+			assertTrue(counter.getCount() >= 6666);
+			assertTrue(counter.getError() <= summary.maxError());
+		}
+	}
+
+	@Test public void merge_givenDisjointStreams_keepsOverestimates() {
+		SpaceSavingSummary first = new SpaceSavingSummary(2);
+		SpaceSavingSummary second = new SpaceSavingSummary(2);
+		for(long value : new long[] {1, 1, 1, 2, 2}) {
+			first.offer(value);
+		}
+		for(long value : new long[] {1, 3, 3, 3, 4}) {
+			second.offer(value);
+		}
+
+		first.merge(second);
+
+		assertEquals(10, first.getTotal());
+		assertEquals(2, first.getSize());
+		/** 1 occurred 4 times and 3 occurred 3 times, both may only be over-estimated */
+		for(Counter counter : first.getMostFrequent(2)) {
+			assertTrue(counter.getValue() == 1L || counter.getValue() == 3L);
+			assertTrue(counter.getCount() >= (counter.getValue() == 1L ? 4 : 3));
+		}
+	}
+}
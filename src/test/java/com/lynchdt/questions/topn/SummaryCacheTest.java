@@ -0,0 +1,103 @@
+package com.lynchdt.questions.topn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.PrintWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+
+public class SummaryCacheTest {
+
+	@Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+	private File numbers(String name, String contents) throws Exception {
+		File file = new File(folder.getRoot(), name);
+		try (PrintWriter writer = new PrintWriter(file)) {
+			writer.print(contents);
+		}
+		return file;
+	}
+
+	private String cachePath() {
+		return new File(folder.getRoot(), "cache").getPath();
+	}
+
+	@Test public void lookup_afterStore_returnsTopWhenEnough() throws Exception {
+		File file = numbers("a.txt", "1\n2\n3\n4\n");
+		SummaryCache cache = SummaryCache.open(cachePath(), 100);
+
+		cache.store(file.getPath(), ImmutableList.of(3L, 4L), false);
+
+		assertArrayEquals(new long[] {3, 4}, cache.lookup(file.getPath(), 2));
+		assertNull(cache.lookup(file.getPath(), 3));
+	}
+
+	@Test public void lookup_completeEntry_answersAnyN() throws Exception {
+		File file = numbers("a.txt", "1\n2\n");
+		SummaryCache cache = SummaryCache.open(cachePath(), 100);
+
+		cache.store(file.getPath(), ImmutableList.of(1L, 2L), true);
+
+		assertNotNull(cache.lookup(file.getPath(), 50));
+	}
+
+	@Test public void lookup_fileChanged_misses() throws Exception {
+		File file = numbers("a.txt", "1\n2\n");
+		SummaryCache cache = SummaryCache.open(cachePath(), 100);
+		cache.store(file.getPath(), ImmutableList.of(1L, 2L), true);
+
+		numbers("a.txt", "1\n2\n3\n");
+
+		assertNull(cache.lookup(file.getPath(), 1));
+		assertEquals(0, cache.size());
+	}
+
+	@Test public void store_overBound_evictsLeastRecentlyUsed() throws Exception {
+		File a = numbers("a.txt", "1\n");
+		File b = numbers("b.txt", "2\n");
+		File c = numbers("c.txt", "3\n");
+		SummaryCache cache = SummaryCache.open(cachePath(), 2);
+		cache.store(a.getPath(), ImmutableList.of(1L), true);
+		cache.store(b.getPath(), ImmutableList.of(2L), true);
+		cache.lookup(a.getPath(), 1);
+
+		cache.store(c.getPath(), ImmutableList.of(3L), true);
+
+		assertNotNull(cache.lookup(a.getPath(), 1));
+		assertNull(cache.lookup(b.getPath(), 1));
+		assertNotNull(cache.lookup(c.getPath(), 1));
+	}
+
+	@Test public void save_thenOpen_keepsEntries() throws Exception {
+		File file = numbers("a.txt", "1\n2\n");
+		SummaryCache cache = SummaryCache.open(cachePath(), 100);
+		cache.store(file.getPath(), ImmutableList.of(1L, 2L), true);
+
+		cache.save();
+
+		assertArrayEquals(new long[] {1, 2}, SummaryCache.open(cachePath(), 100).lookup(file.getPath(), 2));
+	}
+
+	@Test public void execute_secondRun_answeredFromCache() throws Exception {
+		File file = numbers("a.txt", "5\n50\n7\n70\n");
+
+		TopN first = new TopN(ImmutableList.of(file.getPath()), 2, 1, 10);
+		first.useSummaryCache(SummaryCache.open(cachePath(), 100), 3);
+		first.execute();
+		TopN second = new TopN(ImmutableList.of(file.getPath()), 2, 1, 10);
+		second.useSummaryCache(SummaryCache.open(cachePath(), 100), 3);
+		second.execute();
+
+		assertEquals("[70, 50]", first.getHeap().toString());
+		assertEquals("[70, 50]", second.getHeap().toString());
+		assertEquals(0, second.filesToRead().size());
+	}
+}
@@ -0,0 +1,74 @@
+package com.lynchdt.questions.topn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+
+public class ThresholdEstimatorTest {
+
+	@Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+	private File shuffled(String name, int count) throws Exception {
+		List<Long> values = new ArrayList<>();
+		for(long i = 1; i <= count; i++) {
+			values.add(i);
+		}
+		Collections.shuffle(values, new Random(7));
+		File file = folder.newFile(name);
+		try (PrintWriter writer = new PrintWriter(file)) {
+			values.forEach((value) -> writer.print(value + "\n"));
+		}
+		return file;
+	}
+
+	@Test public void estimate_uniformData_isJustBelowNthLargest() throws Exception {
+		File numbers = shuffled("numbers.txt", 100000);
+
+		long estimate = new ThresholdEstimator(new Random(1)).estimate(ImmutableList.of(numbers.getPath()), 1000, 10000);
+
+		assertTrue(estimate <= 99001);
+		assertTrue(estimate > 95000);
+	}
+
+	@Test public void estimate_fewerLinesThanN_cannotSay() throws Exception {
+		File numbers = shuffled("numbers.txt", 50);
+
+		assertEquals(Long.MIN_VALUE, new ThresholdEstimator(new Random(1)).estimate(ImmutableList.of(numbers.getPath()), 100, 1000));
+	}
+
+	@Test public void execute_withSample_givesExactResult() throws Exception {
+		File numbers = shuffled("numbers.txt", 20000);
+
+		TopN topN = new TopN(ImmutableList.of(numbers.getPath()), 3, 2, 100);
+		topN.sampleForThreshold(1000);
+		topN.execute();
+
+		assertEquals("[20000, 19999, 19998]", topN.getHeap().toString());
+	}
+
+	@Test public void execute_seedTooHigh_scansAgainWithoutIt() throws Exception {
+		File numbers = shuffled("numbers.txt", 20000);
+
+		TopN topN = new TopN(ImmutableList.of(numbers.getPath()), 3, 2, 100) {
+			@Override protected long estimateThreshold() {
+				return 19999;
+			}
+		};
+		topN.sampleForThreshold(1000);
+		topN.execute();
+
+		assertEquals("[20000, 19999, 19998]", topN.getHeap().toString());
+	}
+}
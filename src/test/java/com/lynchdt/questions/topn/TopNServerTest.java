@@ -0,0 +1,126 @@
+package com.lynchdt.questions.topn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.ByteStreams;
+
+public class TopNServerTest {
+
+	@Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+	private TopNServer server;
+	private int port;
+	private String file;
+
+	@Before public void startServer() throws Exception {
+		server = new TopNServer(0, 4, 3, 1);
+		port = server.start();
+		File numbers = folder.newFile("numbers.txt");
+		try (PrintWriter writer = new PrintWriter(numbers)) {
+			writer.print("5\n-7\n42\n13\n8\n");
+		}
+		file = URLEncoder.encode(numbers.getPath(), "UTF-8");
+	}
+
+	@After public void stopServer() {
+		server.stop();
+	}
+
+	private HttpURLConnection get(String query) throws Exception {
+		return (HttpURLConnection) new URL("http://localhost:" + port + "/topn?" + query).openConnection();
+	}
+
+	private String body(HttpURLConnection connection) throws Exception {
+		boolean ok = connection.getResponseCode() < 400;
+		return new String(ByteStreams.toByteArray(ok ? connection.getInputStream() : connection.getErrorStream()), "UTF-8");
+	}
+
+	@Test public void query_json_returnsTopHighestFirst() throws Exception {
+		HttpURLConnection connection = get("n=3&file=" + file);
+
+		assertEquals(200, connection.getResponseCode());
+		assertTrue(body(connection).endsWith("\"top\":[42,13,8]}"));
+	}
+
+	@Test public void query_nWithSignOrLeadingZero_echoesParsedN() throws Exception {
+		assertTrue(body(get("n=%2B2&file=" + file)).startsWith("{\"n\":2,"));
+		assertTrue(body(get("n=02&file=" + file)).startsWith("{\"n\":2,"));
+	}
+
+	@Test public void query_repeated_givesSameAnswer() throws Exception {
+		String first = body(get("n=2&workers=1&file=" + file + "&sample"));
+		String second = body(get("n=2&workers=1&file=" + file + "&sample"));
+
+		assertTrue(first.endsWith("\"top\":[42,13]}"));
+		assertTrue(second.endsWith("\"top\":[42,13]}"));
+	}
+
+	@Test public void query_binary_returnsCountThenLongs() throws Exception {
+		HttpURLConnection connection = get("n=2&format=binary&file=" + file);
+
+		DataInputStream in = new DataInputStream(connection.getInputStream());
+		assertEquals(2, in.readInt());
+		assertEquals(42, in.readLong());
+		assertEquals(13, in.readLong());
+	}
+
+	@Test public void query_needsMoreThreadsThanAllowed_isRejected() throws Exception {
+		HttpURLConnection connection = get("n=2&workers=3&file=" + file);
+
+		assertEquals(400, connection.getResponseCode());
+		assertTrue(body(connection).contains("at most 3 allowed"));
+	}
+
+	@Test public void query_follow_isRejected() throws Exception {
+		assertEquals(400, get("n=2&follow&file=" + file).getResponseCode());
+	}
+
+	@Test public void query_writingFiles_isRejected() throws Exception {
+		File written = new File(folder.getRoot(), "written.txt");
+		String path = URLEncoder.encode(written.getPath(), "UTF-8");
+		for(String option : new String[] {"output=" + path, "rejects=" + path, "index", "checkpoint=" + path}) {
+			HttpURLConnection connection = get("n=2&" + option + "&file=" + file);
+
+			assertEquals(option, 400, connection.getResponseCode());
+			assertTrue(body(connection).contains("can't be used in a query"));
+		}
+		assertFalse(written.exists());
+		assertFalse(new File(folder.getRoot(), "numbers.txt.idx").exists());
+	}
+
+	@Test public void query_unknownParameter_isRejected() throws Exception {
+		assertEquals(400, get("n=2&nonsense=1&file=" + file).getResponseCode());
+	}
+
+	@Test public void query_readOnlyOptions_areAllowed() throws Exception {
+		HttpURLConnection connection = get("n=2&quantiles&bad-lines=skip&file=" + file);
+
+		assertEquals(200, connection.getResponseCode());
+		assertTrue(body(connection).endsWith("\"top\":[42,13]}"));
+	}
+
+	@Test public void query_missingFile_leavesNoThreadsRunning() throws Exception {
+		String missing = URLEncoder.encode(new File(folder.getRoot(), "missing.txt").getPath(), "UTF-8");
+
+		assertEquals(500, get("n=2&workers=1&file=" + file + "&file=" + missing).getResponseCode());
+		for(int i = 0; i < 50 && server.activeThreads() > 0; i++) {
+			Thread.sleep(100);
+		}
+		assertEquals(0, server.activeThreads());
+	}
+}
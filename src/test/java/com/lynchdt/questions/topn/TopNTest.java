@@ -1,7 +1,13 @@
 package com.lynchdt.questions.topn;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.io.PrintWriter;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -85,6 +91,25 @@ public class TopNTest {
 		verify(executor, times(topN.fileCount())).submit(any(NumberFileReader.class));
 	}
 	
+	@Test public void execute_missingFile_throwsAndStopsWorkers() throws Exception {
+		/** No TemporaryFolder, the PowerMock runner only copes with the one rule */
+		File numbers = File.createTempFile("numbers", ".txt");
+		numbers.deleteOnExit();
+		try (PrintWriter writer = new PrintWriter(numbers)) {
+			writer.print("1\n2\n3\n");
+		}
+		TopN topN = new TopN(ImmutableList.of(numbers.getPath(), numbers.getPath() + ".missing"), 2, 3, 10);
+		topN.reportTo(new PrintStream(new ByteArrayOutputStream()));
+		
+		try {
+			topN.execute();
+			fail("Reported a result without the missing file");
+		} catch(RuntimeException expected) {
+			assertTrue(expected.getMessage().contains("not every file could be read"));
+		}
+		assertTrue(topN.awaitStopped(5000));
+	}
+	
 	private ExecutorService buildExecutorStub() {
 		PowerMockito.mockStatic(Executors.class);
 		ExecutorService eService = mock(ExecutorService.class);
@@ -0,0 +1,29 @@
+package com.lynchdt.questions.topn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class TopNWorkerTest {
+
+	@Test public void run_endOfStream_drainsQueueThenStops() throws Exception {
+		BlockingQueue<Long> queue = new ArrayBlockingQueue<>(10);
+		queue.addAll(ImmutableList.of(4L, 9L, Long.MIN_VALUE, Long.MIN_VALUE, 2L));
+		TopNWorker worker = new TopNWorker(3, queue);
+
+		worker.endOfStream();
+		worker.run();
+		BoundedMinHeap top = new BoundedMinHeap(3);
+		worker.applyToHeap(top);
+
+		assertTrue(worker.isDone());
+		assertEquals(5, worker.getProcessed());
+		assertEquals("[9, 4, 2]", top.toSortedList().toString());
+	}
+}